@@ -0,0 +1,32 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import java.util.BitSet;
+
+/** Base metrics of a single file: lines of code, comment lines and the lines holding code. */
+interface BaseMetrics {
+
+  int loc();
+
+  int comments();
+
+  /** Lines containing code, as required by {@code NCLOC_DATA}. */
+  BitSet nclocLines();
+}
@@ -0,0 +1,111 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import groovyjarjarantlr4.v4.runtime.Token;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.sonar.plugins.groovy.foundation.GroovyTokens;
+
+/**
+ * Accumulates NCLOC, comment lines and NCLOC data of a single file from its token stream.
+ *
+ * <p>Instances are confined to the thread lexing the file; the results are read once lexing is
+ * done.
+ */
+class BaseMetricsCounter implements Consumer<Token>, BaseMetrics {
+
+  private static final Set<String> EMPTY_COMMENT_LINES =
+      Arrays.stream(new String[] {"/**", "/*", "*", "*/", "//"}).collect(Collectors.toSet());
+
+  private final boolean ignoreHeaderComments;
+  private final BitSet nclocLines = new BitSet();
+  private int loc = 0;
+  private int comments = 0;
+  private int currentLine = 0;
+
+  BaseMetricsCounter(boolean ignoreHeaderComments) {
+    this.ignoreHeaderComments = ignoreHeaderComments;
+  }
+
+  @Override
+  public void accept(Token token) {
+    int tokenLine = token.getLine();
+    if (GroovyTokens.isComment(token)) {
+      if (isNotHeaderComment(tokenLine)) {
+        String text = token.getText();
+        comments += numberCommentLines(text, 0, text.length());
+      }
+    } else if (isNotWhitespace(token) && tokenLine != currentLine) {
+      loc++;
+      nclocLines.set(tokenLine);
+      currentLine = tokenLine;
+    }
+  }
+
+  @Override
+  public int loc() {
+    return loc;
+  }
+
+  @Override
+  public int comments() {
+    return comments;
+  }
+
+  @Override
+  public BitSet nclocLines() {
+    return nclocLines;
+  }
+
+  private boolean isNotHeaderComment(int tokenLine) {
+    return !(tokenLine == 1 && ignoreHeaderComments);
+  }
+
+  /**
+   * Number of lines of the comment between {@code start} and {@code end} which hold more than
+   * comment delimiters.
+   */
+  static int numberCommentLines(CharSequence text, int start, int end) {
+    int lines = 0;
+    int lineStart = start;
+    for (int i = start; i <= end; i++) {
+      char c = i < end ? text.charAt(i) : '\n';
+      if (c == '\r' || c == '\n') {
+        String line = text.subSequence(lineStart, i).toString().trim();
+        if (!EMPTY_COMMENT_LINES.contains(line)) {
+          lines++;
+        }
+        if (c == '\r' && i + 1 < end && text.charAt(i + 1) == '\n') {
+          i++;
+        }
+        lineStart = i + 1;
+      }
+    }
+    return lines;
+  }
+
+  private static boolean isNotWhitespace(Token token) {
+    return token.getType() != GroovyLexer.WS && !GroovyTokens.isLineTerminator(token);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scanner.ScannerSide;
+import org.sonar.plugins.groovy.foundation.GroovySource;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+
+/**
+ * Decides how thoroughly each Groovy file is analyzed, so that huge, minified or generated files do
+ * not go through every stage at full cost.
+ *
+ * <p>Each file is classified once, and the reason of any downgrade is logged at that time. The
+ * thresholds are disabled by a value of 0.
+ */
+@ScannerSide
+public class GroovyAnalysisTiers {
+
+  static final String AST_RULES_MAX_LINES = "sonar.groovy.tiers.astRulesMaxLines";
+  static final int DEFAULT_AST_RULES_MAX_LINES = 20_000;
+  static final String HIGHLIGHTING_MAX_LINES = "sonar.groovy.tiers.highlightingMaxLines";
+  static final int DEFAULT_HIGHLIGHTING_MAX_LINES = 50_000;
+  static final String HIGHLIGHTING_MAX_LINE_LENGTH = "sonar.groovy.tiers.highlightingMaxLineLength";
+  static final int DEFAULT_HIGHLIGHTING_MAX_LINE_LENGTH = 10_000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroovyAnalysisTiers.class);
+
+  public enum Tier {
+    /** Everything is computed. */
+    FULL,
+    /**
+     * The file is not compiled: CodeNarc rules visiting the syntax tree are not applied, {@code
+     * SuppressWarnings} annotations are not read, and GMetrics does not compute its metrics.
+     */
+    NO_AST_RULES,
+    /**
+     * The file is not compiled and only the metrics of the lexer are computed: no highlighting, no
+     * duplication detection, no CodeNarc issues.
+     */
+    METRICS_ONLY;
+
+    public boolean highlights() {
+      return this != METRICS_ONLY;
+    }
+
+    public boolean appliesAstRules() {
+      return this == FULL;
+    }
+
+    public boolean appliesRules() {
+      return this != METRICS_ONLY;
+    }
+
+    public boolean compilesAst() {
+      return this == FULL;
+    }
+  }
+
+  private final GroovySourceCache sourceCache;
+  private final int astRulesMaxLines;
+  private final int highlightingMaxLines;
+  private final int highlightingMaxLineLength;
+  private final Map<InputFile, Tier> tiers = new HashMap<>();
+
+  public GroovyAnalysisTiers(Configuration settings, GroovySourceCache sourceCache) {
+    this.sourceCache = sourceCache;
+    this.astRulesMaxLines =
+        settings.getInt(AST_RULES_MAX_LINES).orElse(DEFAULT_AST_RULES_MAX_LINES);
+    this.highlightingMaxLines =
+        settings.getInt(HIGHLIGHTING_MAX_LINES).orElse(DEFAULT_HIGHLIGHTING_MAX_LINES);
+    this.highlightingMaxLineLength =
+        settings.getInt(HIGHLIGHTING_MAX_LINE_LENGTH).orElse(DEFAULT_HIGHLIGHTING_MAX_LINE_LENGTH);
+  }
+
+  public Tier tierOf(InputFile inputFile) {
+    synchronized (tiers) {
+      Tier tier = tiers.get(inputFile);
+      if (tier != null) {
+        return tier;
+      }
+    }
+    Tier tier = classify(inputFile);
+    synchronized (tiers) {
+      tiers.putIfAbsent(inputFile, tier);
+    }
+    return tier;
+  }
+
+  private Tier classify(InputFile inputFile) {
+    int lines = inputFile.lines();
+    if (exceeds(lines, highlightingMaxLines)) {
+      LOG.info(
+          "Only metrics are computed for {}: {} lines, more than {}",
+          inputFile,
+          lines,
+          highlightingMaxLines);
+      return Tier.METRICS_ONLY;
+    }
+    int maxLineLength = maxLineLength(inputFile);
+    if (exceeds(maxLineLength, highlightingMaxLineLength)) {
+      LOG.info(
+          "Only metrics are computed for {}: a line of {} characters, more than {}",
+          inputFile,
+          maxLineLength,
+          highlightingMaxLineLength);
+      return Tier.METRICS_ONLY;
+    }
+    if (exceeds(lines, astRulesMaxLines)) {
+      LOG.info(
+          "CodeNarc rules visiting the syntax tree are not applied to {}: {} lines, more than {}",
+          inputFile,
+          lines,
+          astRulesMaxLines);
+      return Tier.NO_AST_RULES;
+    }
+    return Tier.FULL;
+  }
+
+  private int maxLineLength(InputFile inputFile) {
+    if (highlightingMaxLineLength <= 0) {
+      return 0;
+    }
+    GroovySource source;
+    try {
+      source = sourceCache.get(inputFile);
+    } catch (IOException e) {
+      // Reported by the sensors reading the file
+      return 0;
+    }
+    int max = 0;
+    for (int line = 1; line <= source.lines(); line++) {
+      max = Math.max(max, source.lineEnd(line) - source.lineStart(line));
+    }
+    return max;
+  }
+
+  private static boolean exceeds(int value, int max) {
+    return max > 0 && value > max;
+  }
+}
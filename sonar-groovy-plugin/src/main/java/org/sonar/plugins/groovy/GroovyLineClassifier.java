@@ -0,0 +1,592 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Computes NCLOC, comment lines and NCLOC data straight from the source characters, without
+ * running the Groovy lexer.
+ *
+ * <p>The scanner only knows what matters for line classification: where comments, strings (plain,
+ * triple-quoted, slashy and dollar-slashy, with their interpolations) and other tokens start. To
+ * tell slashy strings from divisions it tracks the same state as the parrot lexer: the kind of the
+ * last token and the stack of open brackets, inside which new lines and most comments are ignored.
+ * On valid sources the results are the same as {@link BaseMetricsCounter} fed with the lexer
+ * tokens; on sources the lexer rejects, the lexer path stops at the first error while this scanner
+ * goes on.
+ */
+final class GroovyLineClassifier implements BaseMetrics {
+
+  /** Keywords after which, like after operators, a slash starts a slashy string. */
+  private static final Set<String> KEYWORDS =
+      new HashSet<>(
+          Arrays.asList(
+              "as", "def", "in", "trait", "threadsafe", "var", "abstract", "assert", "break",
+              "yield", "case", "catch", "class", "const", "continue", "default", "do", "else",
+              "enum", "extends", "final", "finally", "for", "if", "goto", "implements", "import",
+              "instanceof", "interface", "native", "new", "package", "permits", "private",
+              "protected", "public", "record", "return", "sealed", "static", "strictfp", "super",
+              "switch", "synchronized", "throw", "throws", "transient", "try", "void", "volatile",
+              "while", "boolean", "byte", "char", "short", "int", "long", "float", "double"));
+
+  private static final int INTERPOLATED = Integer.MAX_VALUE;
+  private static final String NON_SEALED_SUFFIX = "-sealed";
+  private static final String ESCAPED_CHARS = "btnfrs\"'\\$01234567u\r\n";
+  private static final String DECIMAL_DIGITS = "0123456789_";
+  private static final String HEXADECIMAL_DIGITS = "0123456789abcdefABCDEF_";
+  private static final String BINARY_DIGITS = "01_";
+  private static final String INTEGER_SUFFIXES = "lLiIgG";
+  private static final String FLOATING_POINT_SUFFIXES = "fFdDgG";
+
+  private enum Paren {
+    PARENTHESIS(true),
+    TRY_RESOURCES(false),
+    BRACKET(true),
+    BRACE(false),
+    INTERPOLATION(false);
+
+    /** New lines and single-line comments are ignored inside parentheses and brackets. */
+    private final boolean ignoresNewLines;
+
+    Paren(boolean ignoresNewLines) {
+      this.ignoresNewLines = ignoresNewLines;
+    }
+  }
+
+  private enum StringKind {
+    SINGLE_QUOTED("'", false),
+    TRIPLE_SINGLE_QUOTED("'''", false),
+    DOUBLE_QUOTED("\"", true),
+    TRIPLE_DOUBLE_QUOTED("\"\"\"", true),
+    SLASHY("/", true),
+    DOLLAR_SLASHY("$/", true);
+
+    private final String begin;
+    private final boolean interpolated;
+
+    StringKind(String begin, boolean interpolated) {
+      this.begin = begin;
+      this.interpolated = interpolated;
+    }
+  }
+
+  private final String source;
+  private final boolean ignoreHeaderComments;
+  private final BitSet nclocLines = new BitSet();
+  private final Deque<Paren> parens = new ArrayDeque<>();
+  private int comments = 0;
+  private int pos = 0;
+  private int line = 1;
+  private boolean regexAllowed = true;
+  private boolean afterTry = false;
+  private int unclosedCommentsFrom = Integer.MAX_VALUE;
+
+  private GroovyLineClassifier(String source, boolean ignoreHeaderComments) {
+    this.source = source;
+    this.ignoreHeaderComments = ignoreHeaderComments;
+  }
+
+  static BaseMetrics classify(CharSequence source, boolean ignoreHeaderComments) {
+    GroovyLineClassifier classifier =
+        new GroovyLineClassifier(source.toString(), ignoreHeaderComments);
+    classifier.scanFile();
+    return classifier;
+  }
+
+  @Override
+  public int loc() {
+    return nclocLines.cardinality();
+  }
+
+  @Override
+  public int comments() {
+    return comments;
+  }
+
+  @Override
+  public BitSet nclocLines() {
+    return nclocLines;
+  }
+
+  private void scanFile() {
+    if (source.startsWith("#!")) {
+      // shebang line, skipped by the lexer
+      pos = endOfLine(pos);
+    }
+    scanCode();
+  }
+
+  /** Scans code up to the end of the file, or up to the brace closing the current interpolation. */
+  private void scanCode() {
+    while (pos < source.length()) {
+      char c = source.charAt(pos);
+      if (c == '\n' || c == '\r') {
+        skipLineTerminator();
+        newLine();
+      } else if (c == ' ' || c == '\t' || c == '\f') {
+        pos++;
+      } else if (c == '\\' && isLineTerminator(pos + 1)) {
+        // line escape, skipped as whitespace
+        pos++;
+        skipLineTerminator();
+      } else if (c == '/' && charAt(pos + 1) == '/') {
+        singleLineComment();
+      } else if (c == '/' && charAt(pos + 1) == '*' && multiLineCommentEnd() >= 0) {
+        multiLineComment(multiLineCommentEnd());
+      } else {
+        nclocLines.set(line);
+        if (c == '}') {
+          pos++;
+          token(false);
+          if (parens.poll() == Paren.INTERPOLATION) {
+            return;
+          }
+        } else {
+          codeToken(c);
+        }
+      }
+    }
+  }
+
+  private void codeToken(char c) {
+    if (c == '/' && regexAllowed && charAt(pos + 1) != '*' && slashyStringEnd() >= 0) {
+      int end = slashyStringEnd();
+      if (end == INTERPOLATED) {
+        scanString(StringKind.SLASHY);
+      } else {
+        skipTo(end);
+        token(false);
+      }
+    } else if (c == '$' && charAt(pos + 1) == '/' && dollarSlashyString()) {
+      token(false);
+    } else if (c == '\'') {
+      scanString(
+          isTripleQuoteStart(StringKind.TRIPLE_SINGLE_QUOTED)
+              ? StringKind.TRIPLE_SINGLE_QUOTED
+              : StringKind.SINGLE_QUOTED);
+    } else if (c == '"') {
+      scanString(
+          isTripleQuoteStart(StringKind.TRIPLE_DOUBLE_QUOTED)
+              ? StringKind.TRIPLE_DOUBLE_QUOTED
+              : StringKind.DOUBLE_QUOTED);
+    } else if (isDigit(c) || (c == '.' && isDigit(charAt(pos + 1)))) {
+      scanNumber();
+    } else if (Character.isJavaIdentifierStart(source.codePointAt(pos))) {
+      scanWord();
+    } else if (c == '(') {
+      parens.push(afterTry ? Paren.TRY_RESOURCES : Paren.PARENTHESIS);
+      pos++;
+      token(true);
+    } else if (c == '[') {
+      parens.push(Paren.BRACKET);
+      pos++;
+      token(true);
+    } else if (c == '{') {
+      parens.push(Paren.BRACE);
+      pos++;
+      token(true);
+    } else if (c == ')' || c == ']') {
+      parens.poll();
+      pos++;
+      token(false);
+    } else if ((c == '+' || c == '-') && charAt(pos + 1) == c) {
+      // increment and decrement are values as far as slashy strings are concerned
+      pos += 2;
+      token(false);
+    } else if (c == '.' && charAt(pos + 1) == '.') {
+      // range, which may be followed by a number
+      pos += 2;
+      token(true);
+    } else {
+      pos++;
+      token(true);
+    }
+  }
+
+  private void scanWord() {
+    int start = pos;
+    pos = skipIdentifier(pos);
+    String word = source.substring(start, pos);
+    if ("non".equals(word) && source.startsWith(NON_SEALED_SUFFIX, pos)) {
+      pos += NON_SEALED_SUFFIX.length();
+      token(true);
+    } else {
+      token(KEYWORDS.contains(word));
+      afterTry = "try".equals(word);
+    }
+  }
+
+  /** Skips a number literal: it may be directly followed by a keyword, as in {@code 1in}. */
+  private void scanNumber() {
+    char radix = Character.toLowerCase(charAt(pos + 1));
+    String suffixes = INTEGER_SUFFIXES + FLOATING_POINT_SUFFIXES;
+    if (source.charAt(pos) == '0' && (radix == 'x' || radix == 'b')) {
+      pos += 2;
+      skipChars(radix == 'x' ? HEXADECIMAL_DIGITS : BINARY_DIGITS);
+      suffixes = INTEGER_SUFFIXES;
+    } else {
+      skipChars(DECIMAL_DIGITS);
+      if (charAt(pos) == '.' && isDigit(charAt(pos + 1))) {
+        pos++;
+        skipChars(DECIMAL_DIGITS);
+        suffixes = FLOATING_POINT_SUFFIXES;
+      }
+      char sign = charAt(pos + 1);
+      if ((charAt(pos) == 'e' || charAt(pos) == 'E')
+          && (isDigit(sign) || ((sign == '+' || sign == '-') && isDigit(charAt(pos + 2))))) {
+        pos += 2;
+        skipChars(DECIMAL_DIGITS);
+        suffixes = FLOATING_POINT_SUFFIXES;
+      }
+    }
+    if (pos < source.length() && suffixes.indexOf(source.charAt(pos)) >= 0) {
+      pos++;
+    }
+    token(false);
+  }
+
+  private void skipChars(String chars) {
+    while (pos < source.length() && chars.indexOf(source.charAt(pos)) >= 0) {
+      pos++;
+    }
+  }
+
+  private void scanString(StringKind kind) {
+    pos += kind.begin.length();
+    scanStringContent(kind);
+    token(false);
+  }
+
+  /** Scans a string up to its end, from its beginning or from its first interpolation. */
+  private void scanStringContent(StringKind kind) {
+    boolean gstring = false;
+    while (pos < source.length()) {
+      char c = source.charAt(pos);
+      if (c == '\n') {
+        pos++;
+        line++;
+      } else if (c == '\\') {
+        skipBackslash(kind);
+      } else if (c == '$' && kind.interpolated) {
+        gstring |= skipDollar(kind);
+      } else if (isStringEnd(kind, c, gstring)) {
+        return;
+      } else {
+        pos++;
+      }
+    }
+  }
+
+  private void skipBackslash(StringKind kind) {
+    pos++;
+    if (kind == StringKind.SLASHY) {
+      if (charAt(pos) == '/') {
+        pos++;
+      }
+    } else if (kind != StringKind.DOLLAR_SLASHY) {
+      if (isLineTerminator(pos)) {
+        skipLineTerminator();
+      } else if (pos < source.length()) {
+        pos++;
+      }
+    }
+  }
+
+  /** Skips a dollar in a string, and the code it interpolates if any. */
+  private boolean skipDollar(StringKind kind) {
+    char next = charAt(pos + 1);
+    if (kind == StringKind.DOLLAR_SLASHY && (next == '$' || next == '/')) {
+      pos += 2;
+      return false;
+    }
+    if (next == '{') {
+      pos++;
+      nclocLines.set(line);
+      parens.push(Paren.INTERPOLATION);
+      pos++;
+      token(true);
+      scanCode();
+      return true;
+    }
+    pos++;
+    if (isFollowedByJavaLetterInGString(pos - 1)) {
+      nclocLines.set(line);
+      return true;
+    }
+    return false;
+  }
+
+  /** Consumes the closing delimiter of the string, if {@code c} starts one. */
+  private boolean isStringEnd(StringKind kind, char c, boolean gstring) {
+    switch (kind) {
+      case SINGLE_QUOTED:
+      case DOUBLE_QUOTED:
+      case SLASHY:
+        if (c == kind.begin.charAt(0)) {
+          pos++;
+          return true;
+        }
+        return false;
+      case DOLLAR_SLASHY:
+        if (c == '/' && charAt(pos + 1) == '$') {
+          pos += 2;
+          return true;
+        }
+        return false;
+      default:
+        char quote = kind.begin.charAt(0);
+        if (c != quote || charAt(pos + 1) != quote || charAt(pos + 2) != quote) {
+          return false;
+        }
+        // until the first interpolation, the lexer keeps extra quotes in the string: only the last
+        // three quotes of a run of at most five close it
+        if (gstring
+            || charAt(pos + 3) != quote
+            || (charAt(pos + 4) == quote && charAt(pos + 5) == quote)) {
+          pos += 3;
+          return true;
+        }
+        return false;
+    }
+  }
+
+  private void singleLineComment() {
+    int end = endOfLine(pos);
+    comment(end);
+    if (!insideParens()) {
+      token(true);
+    }
+  }
+
+  /**
+   * End of the multi-line comment starting at the current position, or -1 if it is not closed: the
+   * lexer then reads a division.
+   */
+  private int multiLineCommentEnd() {
+    if (pos >= unclosedCommentsFrom) {
+      return -1;
+    }
+    int end = source.indexOf("*/", pos + 2);
+    if (end < 0) {
+      unclosedCommentsFrom = pos;
+      return -1;
+    }
+    return end + 2;
+  }
+
+  private void multiLineComment(int end) {
+    comment(end);
+    if (!insideParens() && isFollowedByWhitespaces()) {
+      token(true);
+    }
+  }
+
+  private void comment(int end) {
+    if (!(line == 1 && ignoreHeaderComments)) {
+      comments += BaseMetricsCounter.numberCommentLines(source, pos, end);
+    }
+    skipTo(end);
+  }
+
+  private void skipTo(int end) {
+    for (; pos < end; pos++) {
+      if (source.charAt(pos) == '\n') {
+        line++;
+      }
+    }
+  }
+
+  private boolean isFollowedByWhitespaces() {
+    for (int i = pos; i < source.length() && !isLineTerminator(i); i++) {
+      if (!Character.isWhitespace(source.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void newLine() {
+    if (!insideParens()) {
+      token(true);
+    }
+  }
+
+  /** Records a token of the default channel, telling whether a slashy string may follow it. */
+  private void token(boolean allowsRegex) {
+    regexAllowed = allowsRegex;
+    afterTry = false;
+  }
+
+  private boolean insideParens() {
+    Paren paren = parens.peek();
+    return paren != null && paren.ignoresNewLines;
+  }
+
+  /**
+   * Like the lexer, which matches the longest token, only takes a slash as the start of a string if
+   * the string is closed, or if an interpolation comes first. Returns the end of the string, {@link
+   * #INTERPOLATED} for slashy GStrings, or -1 for a division.
+   */
+  private int slashyStringEnd() {
+    int lastEscapedSlash = -1;
+    int i = pos + 1;
+    while (i < source.length()) {
+      char c = source.charAt(i);
+      if (c == '\\' && charAt(i + 1) == '/') {
+        lastEscapedSlash = i + 1;
+        i += 2;
+      } else if (c == '$' && isFollowedByJavaLetterInGString(i)) {
+        return INTERPOLATED;
+      } else if (c == '/') {
+        return i + 1;
+      } else {
+        i++;
+      }
+    }
+    // a backslash may also be a plain character, the slash after it then closes the string
+    return lastEscapedSlash < 0 ? -1 : (lastEscapedSlash + 1);
+  }
+
+  /**
+   * Scans a dollar slashy string, if the dollar slash starts one. Dollars and slashes may both be
+   * escapes or plain characters: like the lexer, picks the longest of the possible strings, the
+   * dollar slashy GString if they have the same length.
+   */
+  private boolean dollarSlashyString() {
+    int start = pos + StringKind.DOLLAR_SLASHY.begin.length();
+    BitSet reachable = new BitSet();
+    reachable.set(start);
+    int stringEnd = -1;
+    int interpolation = -1;
+    for (int i = start; i >= 0 && i < source.length(); i = reachable.nextSetBit(i + 1)) {
+      char c = source.charAt(i);
+      char next = charAt(i + 1);
+      if (c == '/' && next == '$') {
+        if (i > start) {
+          stringEnd = i + 2;
+        }
+        continue;
+      }
+      if (c == '$' && isFollowedByJavaLetterInGString(i)) {
+        interpolation = i;
+        continue;
+      }
+      reachable.set(i + 1);
+      if (c == '$' && (next == '$' || next == '/')) {
+        reachable.set(i + 2);
+      }
+    }
+    if (stringEnd > interpolation + 1) {
+      skipTo(stringEnd);
+      return true;
+    }
+    if (interpolation >= 0) {
+      skipTo(interpolation);
+      scanStringContent(StringKind.DOLLAR_SLASHY);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Same as {@link #slashyStringEnd()} for triple-quoted strings: if not closed, a triple quote is
+   * an empty string followed by a quote.
+   */
+  private boolean isTripleQuoteStart(StringKind kind) {
+    if (!source.startsWith(kind.begin, pos)) {
+      return false;
+    }
+    int i = pos + kind.begin.length();
+    while (i < source.length()) {
+      char c = source.charAt(i);
+      if (c == '\\') {
+        if (ESCAPED_CHARS.indexOf(charAt(i + 1)) < 0) {
+          return false;
+        }
+        i += 2;
+      } else if (source.startsWith(kind.begin, i)
+          || (c == '$' && kind.interpolated && isFollowedByJavaLetterInGString(i))) {
+        return true;
+      } else {
+        i++;
+      }
+    }
+    return false;
+  }
+
+  private boolean isFollowedByJavaLetterInGString(int dollar) {
+    if (dollar + 1 >= source.length()) {
+      return false;
+    }
+    int c = source.codePointAt(dollar + 1);
+    if (c < 0x80) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '{';
+    }
+    return Character.isJavaIdentifierPart(c);
+  }
+
+  private int skipIdentifier(int from) {
+    int i = from + Character.charCount(source.codePointAt(from));
+    while (isIdentifierPart(i)) {
+      i += Character.charCount(source.codePointAt(i));
+    }
+    return i;
+  }
+
+  private boolean isIdentifierPart(int i) {
+    return i < source.length() && Character.isJavaIdentifierPart(source.codePointAt(i));
+  }
+
+  private void skipLineTerminator() {
+    if (source.charAt(pos) == '\r') {
+      pos++;
+    }
+    if (charAt(pos) == '\n') {
+      pos++;
+      line++;
+    }
+  }
+
+  private boolean isLineTerminator(int i) {
+    char c = charAt(i);
+    return c == '\n' || c == '\r';
+  }
+
+  private int endOfLine(int from) {
+    int i = from;
+    while (i < source.length() && !isLineTerminator(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private char charAt(int i) {
+    return i < source.length() ? source.charAt(i) : '\0';
+  }
+}
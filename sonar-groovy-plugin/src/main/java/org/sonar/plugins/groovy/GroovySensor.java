@@ -18,22 +18,20 @@
  */
 package org.sonar.plugins.groovy;
 
-import groovyjarjarantlr4.runtime.Token;
-import groovyjarjarantlr4.v4.runtime.CommonToken;
+import groovyjarjarantlr4.v4.runtime.Token;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
-import org.apache.commons.io.IOUtils;
-import org.apache.groovy.parser.antlr4.GroovyLangLexer;
-import org.apache.groovy.parser.antlr4.GroovyLexer;
+import javax.annotation.Nullable;
 import org.gmetrics.result.MetricResult;
 import org.gmetrics.result.NumberMetricResult;
 import org.gmetrics.resultsnode.ClassResultsNode;
@@ -53,37 +51,75 @@ import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.FileLinesContext;
 import org.sonar.api.measures.FileLinesContextFactory;
 import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
 import org.sonar.plugins.groovy.foundation.GroovyFileSystem;
 import org.sonar.plugins.groovy.foundation.GroovyHighlighterAndTokenizer;
+import org.sonar.plugins.groovy.foundation.GroovyLexerDfaCache;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+import org.sonar.plugins.groovy.gmetrics.GMetricsRegistry;
 import org.sonar.plugins.groovy.gmetrics.GMetricsSourceAnalyzer;
+import org.sonar.plugins.groovy.utils.FileWatchdog;
+import org.sonar.plugins.groovy.utils.OrderedParallelExecutor;
 
 public class GroovySensor implements Sensor {
 
   static final String IGNORE_HEADER_COMMENTS = "sonar.groovy.ignoreHeaderComments";
+  static final String THREADS = "sonar.groovy.threads";
+  static final String LEXER_DFA_CACHE_MAX_STATES = "sonar.groovy.lexer.dfaCacheMaxStates";
+  static final String BASE_METRICS_ENGINE = "sonar.groovy.baseMetrics.engine";
+  static final String LEXER_ENGINE = "lexer";
+  static final String SCANNER_ENGINE = "scanner";
+  static final String CPD_REDUCE_TOKENS = "sonar.groovy.cpd.reduceTokens";
+  static final String STRUCTURAL_METRICS_ENGINE = "sonar.groovy.structuralMetrics.engine";
+  static final String GMETRICS_ENGINE = "gmetrics";
+  /** Experimental: its measures have not been checked against GMetrics on real projects yet. */
+  static final String TOKENS_ENGINE = "tokens";
+  /** Experimental: meant to measure how far {@link #TOKENS_ENGINE} deviates from GMetrics. */
+  static final String COMPARE_ENGINES = "compare";
+  /** Name under which the sensor registers to {@link GroovySourceCache}. */
+  static final String SOURCE_CONSUMER = "Groovy";
 
   private static final Logger LOG = LoggerFactory.getLogger(GroovySensor.class);
 
-  private static final String CYCLOMATIC_COMPLEXITY_METRIC_NAME = "CyclomaticComplexity";
-
-  private static final Set<String> EMPTY_COMMENT_LINES =
-      Arrays.stream(new String[] {"/**", "/*", "*", "*/", "//"}).collect(Collectors.toSet());
+  private static final int DEFAULT_LEXER_DFA_CACHE_MAX_STATES = 100_000;
+  /** Number of files lexed between two checks of the lexer DFA cache. */
+  private static final int FILES_PER_BATCH = 500;
 
   private final Configuration settings;
   private final FileLinesContextFactory fileLinesContextFactory;
   private final GroovyFileSystem groovyFileSystem;
-
-  private int loc = 0;
-  private int comments = 0;
-  private int currentLine = 0;
-  private FileLinesContext fileLinesContext;
+  private final GroovySourceCache sourceCache;
+  private final GroovyAnalysisTiers tiers;
+  private final GroovyAstProvider astProvider;
+  private int savedHighlightingRanges;
+  private int mergedHighlightingRanges;
+  private int cpdTokenCount;
+  private int savedCpdTokenCount;
 
   public GroovySensor(
       Configuration settings,
       FileLinesContextFactory fileLinesContextFactory,
-      FileSystem fileSystem) {
+      FileSystem fileSystem,
+      GroovySourceCache sourceCache,
+      GroovyAnalysisTiers tiers,
+      GroovyAstProvider astProvider) {
     this.settings = settings;
     this.fileLinesContextFactory = fileLinesContextFactory;
     this.groovyFileSystem = new GroovyFileSystem(fileSystem);
+    this.sourceCache = sourceCache;
+    this.tiers = tiers;
+    this.astProvider = astProvider;
+    sourceCache.register(SOURCE_CONSUMER);
+    if (runsGMetrics(settings)) {
+      // Otherwise the ASTs compiled for CodeNarc would be kept until the end
+      astProvider.register(GMetricsSourceAnalyzer.AST_CONSUMER);
+    }
+  }
+
+  /** GMetrics computes the structural metrics, unless tokens do and the lexer runs. */
+  private static boolean runsGMetrics(Configuration settings) {
+    return SCANNER_ENGINE.equals(settings.get(BASE_METRICS_ENGINE).orElse(LEXER_ENGINE))
+        || !TOKENS_ENGINE.equals(settings.get(STRUCTURAL_METRICS_ENGINE).orElse(GMETRICS_ENGINE));
   }
 
   @Override
@@ -94,31 +130,87 @@ public class GroovySensor implements Sensor {
   @Override
   public void execute(SensorContext context) {
     if (groovyFileSystem.hasGroovyFiles()) {
-      List<InputFile> inputFiles = groovyFileSystem.sourceInputFiles();
-      computeBaseMetrics(context, inputFiles);
-      computeGroovyMetrics(context, inputFiles);
-      try {
-        highlightFiles(context, groovyFileSystem.groovyInputFiles());
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      try (FileWatchdog watchdog = FileWatchdog.create(settings)) {
+        execute(context, watchdog);
       }
     }
+    sourceCache.finish(SOURCE_CONSUMER);
+    astProvider.finish(GMetricsSourceAnalyzer.AST_CONSUMER);
   }
 
-  private static void computeGroovyMetrics(SensorContext context, List<InputFile> inputFiles) {
-    GMetricsSourceAnalyzer metricsAnalyzer =
-        new GMetricsSourceAnalyzer(context.fileSystem(), inputFiles);
-
-    metricsAnalyzer.analyze();
-
-    for (Entry<InputFile, List<ClassResultsNode>> entry :
-        metricsAnalyzer.resultsByFile().entrySet()) {
-      processFile(context, entry.getKey(), entry.getValue());
+  private void execute(SensorContext context, FileWatchdog watchdog) {
+    boolean scanner =
+        SCANNER_ENGINE.equals(settings.get(BASE_METRICS_ENGINE).orElse(LEXER_ENGINE));
+    String structuralEngine = settings.get(STRUCTURAL_METRICS_ENGINE).orElse(GMETRICS_ENGINE);
+    if (scanner && !GMETRICS_ENGINE.equals(structuralEngine)) {
+      LOG.warn(
+          "The \"{}\" structural metrics engine needs the lexer, falling back to GMetrics",
+          structuralEngine);
+      structuralEngine = GMETRICS_ENGINE;
+    } else if (!GMETRICS_ENGINE.equals(structuralEngine)) {
+      LOG.warn("The \"{}\" structural metrics engine is experimental", structuralEngine);
     }
+    Map<InputFile, StructuralMetrics> gmetrics = new HashMap<>();
+    if (!TOKENS_ENGINE.equals(structuralEngine)) {
+      computeGroovyMetrics(
+          context,
+          groovyFileSystem.sourceInputFiles(),
+          watchdog,
+          COMPARE_ENGINES.equals(structuralEngine) ? gmetrics : null);
+    }
+    if (scanner) {
+      scanFiles(context, groovyFileSystem.sourceInputFiles());
+    } else if (TOKENS_ENGINE.equals(structuralEngine)) {
+      lexFiles(
+          context,
+          groovyFileSystem.groovyInputFiles(),
+          watchdog,
+          (mainFile, metrics) -> saveStructuralMetrics(context, mainFile, metrics));
+    } else if (COMPARE_ENGINES.equals(structuralEngine)) {
+      StructuralMetricsReport report = new StructuralMetricsReport();
+      lexFiles(
+          context,
+          groovyFileSystem.groovyInputFiles(),
+          watchdog,
+          (mainFile, metrics) -> report.add(mainFile.toString(), gmetrics.get(mainFile), metrics));
+      report.log();
+    } else {
+      lexFiles(context, groovyFileSystem.groovyInputFiles(), watchdog, null);
+    }
+  }
+
+  /**
+   * Computes the structural metrics with GMetrics on up to {@value #THREADS} worker threads, and
+   * saves those of each file as soon as they are available. They are also put in {@code kept} when
+   * given. Files whose tier does not compile them are left out.
+   */
+  private void computeGroovyMetrics(
+      SensorContext context,
+      List<InputFile> inputFiles,
+      FileWatchdog watchdog,
+      @Nullable Map<InputFile, StructuralMetrics> kept) {
+    GMetricsSourceAnalyzer metricsAnalyzer =
+        new GMetricsSourceAnalyzer(
+            sourceCache,
+            astProvider,
+            inputFiles.stream()
+                .filter(inputFile -> tiers.tierOf(inputFile).compilesAst())
+                .collect(Collectors.toList()),
+            GMetricsRegistry.metrics());
+
+    metricsAnalyzer.analyze(
+        threads(),
+        watchdog,
+        (inputFile, results) -> {
+          StructuralMetrics metrics = processFile(results);
+          saveStructuralMetrics(context, inputFile, metrics);
+          if (kept != null) {
+            kept.put(inputFile, metrics);
+          }
+        });
   }
 
-  private static void processFile(
-      SensorContext context, InputFile sonarFile, Collection<ClassResultsNode> results) {
+  private static StructuralMetrics processFile(Collection<ClassResultsNode> results) {
     int classes = 0;
     int methods = 0;
     int complexity = 0;
@@ -137,109 +229,220 @@ public class GroovySensor implements Sensor {
       }
     }
 
-    saveMetric(context, sonarFile, CoreMetrics.CLASSES, classes);
-    saveMetric(context, sonarFile, CoreMetrics.FUNCTIONS, methods);
-    saveMetric(context, sonarFile, CoreMetrics.COMPLEXITY, complexity);
+    return StructuralMetrics.of(classes, methods, complexity);
+  }
+
+  private static void saveStructuralMetrics(
+      SensorContext context, InputFile sonarFile, StructuralMetrics metrics) {
+    saveMetric(context, sonarFile, CoreMetrics.CLASSES, metrics.classes());
+    saveMetric(context, sonarFile, CoreMetrics.FUNCTIONS, metrics.functions());
+    saveMetric(context, sonarFile, CoreMetrics.COMPLEXITY, metrics.complexity());
   }
 
   private static Optional<MetricResult> getCyclomaticComplexity(List<MetricResult> metricResults) {
     return metricResults.stream()
         .filter(
             metricResult ->
-                CYCLOMATIC_COMPLEXITY_METRIC_NAME.equals(metricResult.getMetric().getName()))
+                GMetricsRegistry.CYCLOMATIC_COMPLEXITY.equals(metricResult.getMetric().getName()))
         .findAny();
   }
 
-  private void computeBaseMetrics(SensorContext context, List<InputFile> inputFiles) {
-    for (InputFile groovyFile : inputFiles) {
-      computeBaseMetrics(context, groovyFile);
+  /**
+   * Lexes every file a single time: the token stream feeds highlighting and CPD tokens, and for
+   * main files also the base metrics (NCLOC, comment lines and NCLOC data). Lexing runs on up to
+   * {@value #THREADS} worker threads, while everything is saved from the sensor thread in file
+   * order. Files are lexed by batches, and the lexer DFA cache is kept bounded between batches.
+   *
+   * <p>When {@code structuralMetrics} is given, the structural metrics of main files are counted
+   * from the token stream as well and handed to it.
+   */
+  private void lexFiles(
+      SensorContext context,
+      List<InputFile> groovyFiles,
+      FileWatchdog watchdog,
+      @Nullable BiConsumer<InputFile, StructuralMetrics> structuralMetrics) {
+    boolean ignoreHeaderComments = settings.getBoolean(IGNORE_HEADER_COMMENTS).orElse(true);
+    int maxDfaStates =
+        settings.getInt(LEXER_DFA_CACHE_MAX_STATES).orElse(DEFAULT_LEXER_DFA_CACHE_MAX_STATES);
+    boolean reduceCpdTokens = settings.getBoolean(CPD_REDUCE_TOKENS).orElse(false);
+    savedHighlightingRanges = 0;
+    mergedHighlightingRanges = 0;
+    cpdTokenCount = 0;
+    savedCpdTokenCount = 0;
+    for (int from = 0; from < groovyFiles.size(); from += FILES_PER_BATCH) {
+      List<InputFile> batch =
+          groovyFiles.subList(from, Math.min(groovyFiles.size(), from + FILES_PER_BATCH));
+      OrderedParallelExecutor.forEachOrdered(
+          batch,
+          threads(),
+          groovyFile -> {
+            try {
+              return watchdog
+                  .run(
+                      "Lexing",
+                      groovyFile,
+                      () ->
+                          lexFile(
+                              context,
+                              groovyFile,
+                              ignoreHeaderComments,
+                              reduceCpdTokens,
+                              structuralMetrics != null))
+                  .orElse(null);
+            } finally {
+              // Lexing is the last pass of the sensor over the file
+              sourceCache.release(groovyFile, SOURCE_CONSUMER);
+            }
+          },
+          (groovyFile, lexedFile) -> {
+            if (lexedFile == null) {
+              // Skipped by the watchdog
+              return;
+            }
+            saveLexedFile(context, groovyFile, lexedFile);
+            if (structuralMetrics != null && lexedFile.read && lexedFile.structure != null) {
+              structuralMetrics.accept(groovyFile, lexedFile.structure);
+            }
+          });
+      checkLexerDfaCache(maxDfaStates);
+    }
+    LOG.info(
+        "Highlighting: {} range(s) saved, {} merged into the previous one",
+        savedHighlightingRanges,
+        mergedHighlightingRanges);
+    if (reduceCpdTokens) {
+      LOG.info("CPD tokens: {} saved instead of {}", savedCpdTokenCount, cpdTokenCount);
     }
   }
 
-  private void computeBaseMetrics(SensorContext context, InputFile groovyFile) {
-    loc = 0;
-    comments = 0;
-    currentLine = 0;
-    fileLinesContext = fileLinesContextFactory.createFor(groovyFile);
-    try (InputStreamReader streamReader =
-        new InputStreamReader(groovyFile.inputStream(), groovyFile.charset())) {
-      List<String> lines = IOUtils.readLines(groovyFile.inputStream(), groovyFile.charset());
-      GroovyLexer groovyLexer = new GroovyLangLexer(streamReader);
-      CommonToken token = (CommonToken) groovyLexer.nextToken();
-      CommonToken nextToken = (CommonToken) groovyLexer.nextToken();
-      while (nextToken.getType() != Token.EOF) {
-        handleToken(token, nextToken.getLine(), lines);
-        token = nextToken;
-        nextToken = (CommonToken) groovyLexer.nextToken();
-      }
-      handleToken(token, nextToken.getLine(), lines);
-      saveMetric(context, groovyFile, CoreMetrics.NCLOC, loc);
-      saveMetric(context, groovyFile, CoreMetrics.COMMENT_LINES, comments);
-    } catch (IOException e) {
-      LOG.error("Unable to read file: {}", groovyFile, e);
-    }
-    fileLinesContext.save();
+  /**
+   * Computes the base metrics of main files with {@link GroovyLineClassifier}, without lexing them:
+   * much faster, but there is no highlighting nor CPD tokens.
+   */
+  private void scanFiles(SensorContext context, List<InputFile> mainFiles) {
+    boolean ignoreHeaderComments = settings.getBoolean(IGNORE_HEADER_COMMENTS).orElse(true);
+    OrderedParallelExecutor.forEachOrdered(
+        mainFiles,
+        threads(),
+        mainFile -> {
+          try {
+            return scanFile(mainFile, ignoreHeaderComments);
+          } finally {
+            sourceCache.release(mainFile, SOURCE_CONSUMER);
+          }
+        },
+        (mainFile, scannedFile) -> saveLexedFile(context, mainFile, scannedFile));
   }
 
-  private static void highlightFiles(SensorContext context, List<InputFile> inputFiles)
-      throws IOException {
-    for (InputFile inputFile : inputFiles) {
-      new GroovyHighlighterAndTokenizer(inputFile).processFile(context);
+  private LexedFile scanFile(InputFile mainFile, boolean ignoreHeaderComments) {
+    try {
+      return new LexedFile(
+          null,
+          true,
+          GroovyLineClassifier.classify(sourceCache.get(mainFile), ignoreHeaderComments),
+          null);
+    } catch (IOException e) {
+      LOG.error("Unable to read file: " + mainFile.filename(), e);
+      return new LexedFile(
+          null, false, GroovyLineClassifier.classify("", ignoreHeaderComments), null);
     }
   }
 
-  private static <T extends Serializable> void saveMetric(
-      SensorContext context, InputComponent inputComponent, Metric<T> metric, T value) {
-    context.<T>newMeasure().withValue(value).forMetric(metric).on(inputComponent).save();
+  private static void checkLexerDfaCache(int maxStates) {
+    int states = GroovyLexerDfaCache.size();
+    // Cancelled tasks ignoring interruption may still be lexing or parsing with the cache
+    int abandonedTasks = FileWatchdog.abandonedTasks();
+    boolean cleared =
+        maxStates > 0 && abandonedTasks == 0 && GroovyLexerDfaCache.clearIfLargerThan(maxStates);
+    LOG.debug(
+        "Groovy lexer DFA cache: {} states{}, cleared {} time(s) so far",
+        states,
+        cleared ? " (cleared)" : abandonedTasks > 0 ? " (kept for cancelled tasks)" : "",
+        GroovyLexerDfaCache.clears());
   }
 
-  private void handleToken(CommonToken token, int nextTokenLine, List<String> lines) {
-    int tokenType = token.getType();
-    int tokenLine = token.getLine();
-    if (isComment(tokenType)) {
-      if (isNotHeaderComment(tokenLine)) {
-        comments += nextTokenLine - tokenLine + 1 - numberEmptyLines(token, lines);
+  private LexedFile lexFile(
+      SensorContext context,
+      InputFile groovyFile,
+      boolean ignoreHeaderComments,
+      boolean reduceCpdTokens,
+      boolean countStructure) {
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(groovyFile, sourceCache, reduceCpdTokens);
+    boolean highlights = tiers.tierOf(groovyFile).highlights();
+    if (groovyFile.type() != InputFile.Type.MAIN) {
+      if (!highlights) {
+        return new LexedFile(null, true, null, null);
       }
-    } else if (isNotWhitespace(tokenType) && tokenLine != currentLine) {
-      loc++;
-      fileLinesContext.setIntValue(CoreMetrics.NCLOC_DATA_KEY, tokenLine, 1);
-      currentLine = tokenLine;
+      boolean read = highlighter.tokenize(context, token -> {});
+      return new LexedFile(highlighter, read, null, null);
     }
+    BaseMetricsCounter counter = new BaseMetricsCounter(ignoreHeaderComments);
+    StructuralMetricsCounter structureCounter =
+        countStructure ? new StructuralMetricsCounter() : null;
+    Consumer<Token> tokenConsumer =
+        structureCounter == null ? counter : counter.andThen(structureCounter);
+    boolean read =
+        highlights
+            ? highlighter.tokenize(context, tokenConsumer)
+            : highlighter.lexOnly(tokenConsumer);
+    return new LexedFile(highlights ? highlighter : null, read, counter, structureCounter);
   }
 
-  private int numberEmptyLines(CommonToken token, List<String> lines) {
-    List<String> relatedLines = getLinesFromToken(lines, token);
-    long emptyLines =
-        relatedLines.stream().map(String::trim).filter(EMPTY_COMMENT_LINES::contains).count();
-    return (int) emptyLines;
+  private void saveLexedFile(SensorContext context, InputFile groovyFile, LexedFile lexedFile) {
+    if (lexedFile.highlighter != null) {
+      lexedFile.highlighter.save();
+      savedHighlightingRanges += lexedFile.highlighter.savedRanges();
+      mergedHighlightingRanges += lexedFile.highlighter.mergedRanges();
+      cpdTokenCount += lexedFile.highlighter.cpdTokenCount();
+      savedCpdTokenCount += lexedFile.highlighter.savedCpdTokenCount();
+    }
+    BaseMetrics metrics = lexedFile.metrics;
+    if (metrics == null) {
+      return;
+    }
+    if (lexedFile.read) {
+      saveMetric(context, groovyFile, CoreMetrics.NCLOC, metrics.loc());
+      saveMetric(context, groovyFile, CoreMetrics.COMMENT_LINES, metrics.comments());
+    }
+    FileLinesContext fileLinesContext = fileLinesContextFactory.createFor(groovyFile);
+    BitSet nclocLines = metrics.nclocLines();
+    for (int line = nclocLines.nextSetBit(0); line >= 0; line = nclocLines.nextSetBit(line + 1)) {
+      fileLinesContext.setIntValue(CoreMetrics.NCLOC_DATA_KEY, line, 1);
+    }
+    fileLinesContext.save();
   }
 
-  private static List<String> getLinesFromToken(List<String> lines, CommonToken gst) {
-    List<String> newLines = new ArrayList<>(lines.subList(gst.getLine() - 1, gst.getLine()));
-
-    int lastLineIndex = newLines.size() - 1;
-    String lastLine =
-        newLines
-            .get(lastLineIndex)
-            .substring(0, gst.getCharPositionInLine() + gst.toString().length() - 1);
-    newLines.set(lastLineIndex, lastLine);
-
-    String firstLine = newLines.get(0).substring(gst.getCharPositionInLine() - 1);
-    newLines.set(0, firstLine);
-
-    return newLines;
+  private int threads() {
+    return threads(settings);
   }
 
-  private boolean isNotHeaderComment(int tokenLine) {
-    return !(tokenLine == 1 && settings.getBoolean(IGNORE_HEADER_COMMENTS).orElse(true));
+  /** Number of worker threads of the Groovy analysis, CodeNarc included. */
+  public static int threads(Configuration settings) {
+    return Math.max(1, settings.getInt(THREADS).orElse(1));
   }
 
-  private static boolean isNotWhitespace(int tokenType) {
-    return (tokenType != GroovyLexer.WS);
+  private static <T extends Serializable> void saveMetric(
+      SensorContext context, InputComponent inputComponent, Metric<T> metric, T value) {
+    context.<T>newMeasure().withValue(value).forMetric(metric).on(inputComponent).save();
   }
 
-  private static boolean isComment(int tokenType) {
-    return tokenType == GroovyLexer.SH_COMMENT;
+  private static class LexedFile {
+    @Nullable private final GroovyHighlighterAndTokenizer highlighter;
+    private final boolean read;
+    @Nullable private final BaseMetrics metrics;
+    @Nullable private final StructuralMetrics structure;
+
+    private LexedFile(
+        @Nullable GroovyHighlighterAndTokenizer highlighter,
+        boolean read,
+        @Nullable BaseMetrics metrics,
+        @Nullable StructuralMetrics structure) {
+      this.highlighter = highlighter;
+      this.read = read;
+      this.metrics = metrics;
+      this.structure = structure;
+    }
   }
 
   @Override
@@ -251,6 +454,7 @@ public class GroovySensor implements Sensor {
     return Arrays.asList(
         GroovySensor.class,
         GroovySonarWayProfile.class,
+        GroovyAnalysisTiers.class,
         PropertyDefinition.builder(IGNORE_HEADER_COMMENTS)
             .name("Ignore Header Comments")
             .description(
@@ -261,6 +465,105 @@ public class GroovySensor implements Sensor {
             .subCategory("Base")
             .defaultValue("true")
             .type(PropertyType.BOOLEAN)
+            .build(),
+        PropertyDefinition.builder(THREADS)
+            .name("Analysis Threads")
+            .description(
+                "Number of threads used to lex Groovy files (highlighting, CPD tokens and base metrics), to compute their GMetrics structural metrics and to apply CodeNarc rules. "
+                    + "Measures and issues are identical whatever the value, only the analysis time changes.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue("1")
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(LEXER_DFA_CACHE_MAX_STATES)
+            .name("Lexer Cache Size")
+            .description(
+                "Maximum number of states kept in the DFA cache shared by all Groovy lexers. "
+                    + "The cache is cleared when it grows above this size. Use 0 to never clear it.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(DEFAULT_LEXER_DFA_CACHE_MAX_STATES))
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(CPD_REDUCE_TOKENS)
+            .name("Reduce Duplication Tokens")
+            .description(
+                "If set to \"true\", package and import statements are ignored by duplication detection, "
+                    + "and numbers and GStrings are compared as any literal. "
+                    + "Fewer tokens make duplication detection faster, but more blocks are reported as duplicated.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue("false")
+            .type(PropertyType.BOOLEAN)
+            .build(),
+        PropertyDefinition.builder(GroovyAnalysisTiers.AST_RULES_MAX_LINES)
+            .name("AST Rules Maximum Lines")
+            .description(
+                "Files with more lines are not compiled: CodeNarc rules visiting the syntax tree are not applied, "
+                    + "SuppressWarnings annotations are ignored and GMetrics does not compute classes, functions "
+                    + "and complexity. Use 0 for no limit.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(GroovyAnalysisTiers.DEFAULT_AST_RULES_MAX_LINES))
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINES)
+            .name("Highlighting Maximum Lines")
+            .description(
+                "Only the metrics of the lexer are computed for files with more lines: no syntax highlighting, "
+                    + "no duplication detection and no CodeNarc issues. Use 0 for no limit.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(GroovyAnalysisTiers.DEFAULT_HIGHLIGHTING_MAX_LINES))
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINE_LENGTH)
+            .name("Highlighting Maximum Line Length")
+            .description(
+                "Only the metrics of the lexer are computed for files with a longer line, which are usually minified "
+                    + "or generated: no syntax highlighting, no duplication detection and no CodeNarc issues. "
+                    + "Use 0 for no limit.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(GroovyAnalysisTiers.DEFAULT_HIGHLIGHTING_MAX_LINE_LENGTH))
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(FileWatchdog.TIMEOUT_KEY)
+            .name("File Timeout")
+            .description(
+                "Maximum number of seconds spent on each file by each stage of the analysis (lexing, GMetrics, CodeNarc). "
+                    + "A file exceeding it is skipped by that stage, with a warning. Use 0 for no limit.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue("0")
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(BASE_METRICS_ENGINE)
+            .name("Base Metrics Engine")
+            .description(
+                "How lines of code and comment lines are computed. \"lexer\" lexes every file, which also provides syntax highlighting and duplication detection. "
+                    + "\"scanner\" gives the same metrics by only scanning the characters of main files, much faster, "
+                    + "but without syntax highlighting nor duplication detection.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(LEXER_ENGINE)
+            .type(PropertyType.SINGLE_SELECT_LIST)
+            .options(LEXER_ENGINE, SCANNER_ENGINE)
+            .build(),
+        PropertyDefinition.builder(STRUCTURAL_METRICS_ENGINE)
+            .name("Structural Metrics Engine")
+            .description(
+                "How classes, functions and complexity are computed. \"gmetrics\" builds the syntax tree of every main file with GMetrics. "
+                    + "The other engines are experimental. "
+                    + "\"tokens\" counts declarations and decision points in the tokens of the lexer, much faster but approximate. "
+                    + "\"compare\" saves the GMetrics measures and logs how far the ones from tokens deviate from them. "
+                    + "Only \"gmetrics\" is available with the \"scanner\" base metrics engine.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(GMETRICS_ENGINE)
+            .type(PropertyType.SINGLE_SELECT_LIST)
+            .options(GMETRICS_ENGINE, TOKENS_ENGINE, COMPARE_ENGINES)
             .build());
   }
 }
@@ -0,0 +1,418 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import groovyjarjarantlr4.v4.runtime.Token;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.sonar.plugins.groovy.foundation.GroovyTokens;
+
+/**
+ * Approximates the structural metrics computed by GMetrics (classes, methods and cyclomatic
+ * complexity) from the token stream of a single file, without building its AST.
+ *
+ * <p>Like GMetrics, it counts:
+ *
+ * <ul>
+ *   <li>one class per class, interface, enum, trait, record and anonymous class, plus one for the
+ *       script class when the file has top-level statements;
+ *   <li>one function per method with a body and per closure field, constructors excluded;
+ *   <li>a complexity of one per function, plus one per {@code if}, {@code while}, {@code for},
+ *       {@code case}, {@code catch}, {@code &&}, {@code ||}, ternary and elvis operator in its body
+ *       (the statements of a script are not part of any function).
+ * </ul>
+ *
+ * <p>Declarations are recognized from their shape only, so unusual code can be counted
+ * differently than GMetrics does. Instances are confined to the thread lexing the file.
+ */
+class StructuralMetricsCounter implements Consumer<Token>, StructuralMetrics {
+
+  /** Token types index the lookup tables below, as the counter runs on every token. */
+  private static final int TOKEN_TYPES = GroovyLexer.VOCABULARY.getMaxTokenType() + 1;
+
+  private static final boolean[] TYPE_KEYWORDS =
+      tableOf(
+          GroovyLexer.CLASS,
+          GroovyLexer.INTERFACE,
+          GroovyLexer.ENUM,
+          GroovyLexer.TRAIT,
+          GroovyLexer.RECORD);
+  private static final boolean[] DECISIONS =
+      tableOf(
+          GroovyLexer.IF,
+          GroovyLexer.WHILE,
+          GroovyLexer.FOR,
+          GroovyLexer.CASE,
+          GroovyLexer.CATCH,
+          GroovyLexer.AND,
+          GroovyLexer.OR,
+          GroovyLexer.ELVIS);
+  private static final boolean[] MODIFIERS =
+      tableOf(
+          GroovyLexer.DEF,
+          GroovyLexer.VAR,
+          GroovyLexer.STATIC,
+          GroovyLexer.PUBLIC,
+          GroovyLexer.PRIVATE,
+          GroovyLexer.PROTECTED,
+          GroovyLexer.FINAL,
+          GroovyLexer.ABSTRACT,
+          GroovyLexer.SYNCHRONIZED,
+          GroovyLexer.NATIVE,
+          GroovyLexer.TRANSIENT,
+          GroovyLexer.STRICTFP,
+          GroovyLexer.DEFAULT,
+          GroovyLexer.VOLATILE,
+          GroovyLexer.SEALED,
+          GroovyLexer.NON_SEALED);
+  /** Tokens which may precede the name of a method: modifiers and return types. */
+  private static final boolean[] METHOD_NAME_PREFIXES =
+      union(
+          MODIFIERS,
+          tableOf(
+              GroovyLexer.VOID,
+              GroovyLexer.BuiltInPrimitiveType,
+              GroovyLexer.Identifier,
+              GroovyLexer.CapitalizedIdentifier,
+              GroovyLexer.GT,
+              GroovyLexer.RBRACK));
+  private static final boolean[] MEMBER_ACCESSES =
+      tableOf(
+          GroovyLexer.DOT,
+          GroovyLexer.SAFE_DOT,
+          GroovyLexer.SAFE_CHAIN_DOT,
+          GroovyLexer.SPREAD_DOT,
+          GroovyLexer.METHOD_POINTER,
+          GroovyLexer.METHOD_REFERENCE);
+  /** Tokens which make the previous {@code ?} a generics wildcard rather than a ternary. */
+  private static final boolean[] WILDCARD_FOLLOWERS =
+      tableOf(GroovyLexer.GT, GroovyLexer.COMMA, GroovyLexer.EXTENDS, GroovyLexer.SUPER);
+
+  private enum Pending {
+    NONE,
+    TYPE_HEADER,
+    METHOD_PARAMETERS,
+    METHOD_BODY,
+    THROWS_CLAUSE,
+    CLOSURE_FIELD,
+    ANONYMOUS_CLASS_BODY
+  }
+
+  private static final class Scope {
+    private final boolean typeBody;
+    private final boolean countsDecisions;
+    @Nullable private final String typeName;
+    private final int enclosingParens;
+
+    private Scope(
+        boolean typeBody, boolean countsDecisions, @Nullable String typeName, int enclosingParens) {
+      this.typeBody = typeBody;
+      this.countsDecisions = countsDecisions;
+      this.typeName = typeName;
+      this.enclosingParens = enclosingParens;
+    }
+  }
+
+  private final Deque<Scope> scopes = new ArrayDeque<>();
+  /** Parenthesis depth of every {@code new} whose arguments are not closed yet. */
+  private final Deque<Integer> instantiations = new ArrayDeque<>();
+  private int parens = 0;
+
+  private int previous = GroovyLexer.NL;
+  private int beforePrevious = GroovyLexer.NL;
+  /** Its text is only fetched when needed, as most tokens do not need it. */
+  @Nullable private Token previousToken;
+
+  private Pending pending = Pending.NONE;
+  private int pendingParens;
+  @Nullable private String pendingTypeName;
+  private boolean pendingConstructor;
+  private boolean pendingQuestion;
+
+  private boolean statementHasCode;
+  private boolean statementDeclaresType;
+  private boolean statementIsHeader;
+  private boolean inAnnotationName;
+  private boolean script;
+
+  private int classes = 0;
+  private int functions = 0;
+  private int decisions = 0;
+
+  @Override
+  public void accept(Token token) {
+    int type = token.getType();
+    if (type == GroovyLexer.WS || GroovyTokens.isComment(token)) {
+      return;
+    }
+    if (type == GroovyLexer.NL) {
+      newLine();
+    } else {
+      if (pendingQuestion) {
+        pendingQuestion = false;
+        if (!contains(WILDCARD_FOLLOWERS, type)) {
+          decisions++;
+        }
+      }
+      if (scopes.isEmpty() && parens == 0) {
+        topLevelToken(type);
+      }
+      if (!continuesDeclaration(type, token)) {
+        token(type);
+      }
+    }
+    beforePrevious = previous;
+    previous = type;
+    previousToken = token;
+  }
+
+  @Override
+  public int classes() {
+    return classes + (script || isScriptStatement() ? 1 : 0);
+  }
+
+  @Override
+  public int functions() {
+    return functions;
+  }
+
+  @Override
+  public int complexity() {
+    return functions + decisions;
+  }
+
+  private void newLine() {
+    if (pending == Pending.ANONYMOUS_CLASS_BODY) {
+      pending = Pending.NONE;
+    }
+    if (scopes.isEmpty() && parens == 0) {
+      endTopLevelStatement();
+    }
+  }
+
+  /** Tells whether the token belongs to the declaration being recognized. */
+  private boolean continuesDeclaration(int type, Token token) {
+    switch (pending) {
+      case TYPE_HEADER:
+        if (type == GroovyLexer.COLON && contains(TYPE_KEYWORDS, previous)) {
+          // a map key or a named argument
+          pending = Pending.NONE;
+          return true;
+        }
+        if (pendingTypeName == null && isIdentifier(type)) {
+          pendingTypeName = token.getText();
+        }
+        if (type == GroovyLexer.LBRACE && parens == pendingParens) {
+          openType(pendingTypeName);
+          return true;
+        }
+        return false;
+      case METHOD_BODY:
+      case THROWS_CLAUSE:
+        if (type == GroovyLexer.LBRACE) {
+          openMethod(!pendingConstructor);
+          return true;
+        }
+        if (type == GroovyLexer.THROWS) {
+          pending = Pending.THROWS_CLAUSE;
+          return true;
+        }
+        if (pending == Pending.THROWS_CLAUSE
+            && (isIdentifier(type) || type == GroovyLexer.DOT || type == GroovyLexer.COMMA)) {
+          return true;
+        }
+        pending = Pending.NONE;
+        return false;
+      case CLOSURE_FIELD:
+        if (type == GroovyLexer.LBRACE) {
+          openMethod(true);
+          return true;
+        }
+        pending = Pending.NONE;
+        return false;
+      case ANONYMOUS_CLASS_BODY:
+        pending = Pending.NONE;
+        if (type == GroovyLexer.LBRACE) {
+          openType(null);
+          return true;
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  private void token(int type) {
+    Scope scope = scopes.peek();
+    boolean countsDecisions = scope != null && scope.countsDecisions;
+    switch (type) {
+      case GroovyLexer.LPAREN:
+        if (pending == Pending.NONE
+            && parens == 0
+            && (scope == null || scope.typeBody)
+            && isMethodName(previous)
+            && contains(METHOD_NAME_PREFIXES, beforePrevious)) {
+          pending = Pending.METHOD_PARAMETERS;
+          pendingParens = parens;
+          pendingConstructor = scope != null && previousToken.getText().equals(scope.typeName);
+        }
+        parens++;
+        break;
+      case GroovyLexer.LBRACK:
+      case GroovyLexer.SAFE_INDEX:
+        parens++;
+        break;
+      case GroovyLexer.RPAREN:
+      case GroovyLexer.RBRACK:
+        parens = Math.max(0, parens - 1);
+        closeParen(type == GroovyLexer.RPAREN);
+        break;
+      case GroovyLexer.LBRACE:
+        scopes.push(new Scope(false, countsDecisions, null, parens));
+        parens = 0;
+        break;
+      case GroovyLexer.RBRACE:
+        if (scope != null) {
+          scopes.pop();
+          parens = scope.enclosingParens;
+        }
+        break;
+      case GroovyLexer.NEW:
+        instantiations.push(parens);
+        break;
+      case GroovyLexer.ASSIGN:
+        if (pending == Pending.NONE && parens == 0 && scope != null && scope.typeBody) {
+          pending = Pending.CLOSURE_FIELD;
+        }
+        break;
+      case GroovyLexer.QUESTION:
+        pendingQuestion = countsDecisions;
+        break;
+      default:
+        if (contains(TYPE_KEYWORDS, type) && !contains(MEMBER_ACCESSES, previous)) {
+          pending = Pending.TYPE_HEADER;
+          pendingParens = parens;
+          pendingTypeName = null;
+        } else if (countsDecisions && contains(DECISIONS, type)) {
+          decisions++;
+        }
+    }
+  }
+
+  private void closeParen(boolean parenthesis) {
+    if (pending == Pending.METHOD_PARAMETERS && parens == pendingParens) {
+      pending = Pending.METHOD_BODY;
+    }
+    while (!instantiations.isEmpty() && instantiations.peek() > parens) {
+      instantiations.pop();
+    }
+    if (!instantiations.isEmpty() && instantiations.peek() == parens) {
+      instantiations.pop();
+      if (parenthesis && pending == Pending.NONE) {
+        pending = Pending.ANONYMOUS_CLASS_BODY;
+      }
+    }
+  }
+
+  private void openType(@Nullable String name) {
+    pending = Pending.NONE;
+    classes++;
+    scopes.push(new Scope(true, false, name, parens));
+    parens = 0;
+  }
+
+  private void openMethod(boolean function) {
+    pending = Pending.NONE;
+    if (function) {
+      functions++;
+    }
+    scopes.push(new Scope(false, function, null, parens));
+    parens = 0;
+  }
+
+  /**
+   * Tracks whether the top-level statements of the file make it a script: anything but package
+   * and import statements, annotations, modifiers and type declarations.
+   */
+  private void topLevelToken(int type) {
+    if (type == GroovyLexer.SEMI) {
+      endTopLevelStatement();
+      return;
+    }
+    boolean first = !statementHasCode && !statementDeclaresType && !inAnnotationName;
+    if (first && (type == GroovyLexer.PACKAGE || type == GroovyLexer.IMPORT)) {
+      statementIsHeader = true;
+    } else if (contains(TYPE_KEYWORDS, type) && !contains(MEMBER_ACCESSES, previous)) {
+      statementDeclaresType = true;
+    } else if (type == GroovyLexer.AT) {
+      inAnnotationName = true;
+    } else if (inAnnotationName && (isIdentifier(type) || type == GroovyLexer.DOT)) {
+      // part of the annotation name
+    } else if (inAnnotationName && type == GroovyLexer.LPAREN) {
+      // annotation arguments are skipped, being inside parentheses
+      inAnnotationName = false;
+    } else {
+      inAnnotationName = false;
+      statementHasCode |= !contains(MODIFIERS, type);
+    }
+  }
+
+  private void endTopLevelStatement() {
+    script |= isScriptStatement();
+    statementHasCode = false;
+    statementDeclaresType = false;
+    statementIsHeader = false;
+    inAnnotationName = false;
+  }
+
+  private boolean isScriptStatement() {
+    return statementHasCode && !statementDeclaresType && !statementIsHeader;
+  }
+
+  private static boolean isMethodName(int type) {
+    return isIdentifier(type) || type == GroovyLexer.StringLiteral;
+  }
+
+  private static boolean isIdentifier(int type) {
+    return type == GroovyLexer.Identifier || type == GroovyLexer.CapitalizedIdentifier;
+  }
+
+  private static boolean contains(boolean[] table, int type) {
+    return type >= 0 && type < table.length && table[type];
+  }
+
+  private static boolean[] tableOf(int... types) {
+    boolean[] table = new boolean[TOKEN_TYPES];
+    for (int type : types) {
+      table[type] = true;
+    }
+    return table;
+  }
+
+  private static boolean[] union(boolean[] first, boolean[] second) {
+    boolean[] union = new boolean[TOKEN_TYPES];
+    for (int type = 0; type < TOKEN_TYPES; type++) {
+      union[type] = first[type] || second[type];
+    }
+    return union;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToIntFunction;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the structural metrics computed from the token stream with the ones computed by
+ * GMetrics, to tell how far the former can be trusted on a given code base.
+ */
+class StructuralMetricsReport {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StructuralMetricsReport.class);
+
+  private final Tolerance classes = new Tolerance("classes", StructuralMetrics::classes);
+  private final Tolerance functions = new Tolerance("functions", StructuralMetrics::functions);
+  private final Tolerance complexity = new Tolerance("complexity", StructuralMetrics::complexity);
+  private int files = 0;
+
+  /** Files without GMetrics results (e.g. they do not compile) are not compared. */
+  void add(String file, @Nullable StructuralMetrics gmetrics, StructuralMetrics tokens) {
+    if (gmetrics == null) {
+      return;
+    }
+    files++;
+    for (Tolerance tolerance : tolerances()) {
+      if (!tolerance.add(gmetrics, tokens)) {
+        LOG.debug(
+            "{}: {} {} with GMetrics, {} from tokens",
+            file,
+            tolerance.metric,
+            tolerance.value.applyAsInt(gmetrics),
+            tolerance.value.applyAsInt(tokens));
+      }
+    }
+  }
+
+  List<String> summary() {
+    List<String> lines = new ArrayList<>();
+    lines.add("Structural metrics from tokens compared with GMetrics on " + files + " file(s)");
+    for (Tolerance tolerance : tolerances()) {
+      lines.add(tolerance.toString());
+    }
+    return lines;
+  }
+
+  void log() {
+    summary().forEach(LOG::info);
+  }
+
+  private List<Tolerance> tolerances() {
+    return Arrays.asList(classes, functions, complexity);
+  }
+
+  private final class Tolerance {
+    private final String metric;
+    private final ToIntFunction<StructuralMetrics> value;
+    private int identicalFiles = 0;
+    private long gmetricsTotal = 0;
+    private long tokensTotal = 0;
+    private long deviation = 0;
+
+    private Tolerance(String metric, ToIntFunction<StructuralMetrics> value) {
+      this.metric = metric;
+      this.value = value;
+    }
+
+    private boolean add(StructuralMetrics gmetrics, StructuralMetrics tokens) {
+      int expected = value.applyAsInt(gmetrics);
+      int actual = value.applyAsInt(tokens);
+      gmetricsTotal += expected;
+      tokensTotal += actual;
+      deviation += Math.abs(expected - actual);
+      if (expected == actual) {
+        identicalFiles++;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      double deviationPercent = gmetricsTotal == 0 ? 0 : 100.0 * deviation / gmetricsTotal;
+      return String.format(
+          Locale.ROOT,
+          "  %s: identical on %d of %d file(s), %d with GMetrics, %d from tokens, %.1f%% deviation",
+          metric,
+          identicalFiles,
+          files,
+          gmetricsTotal,
+          tokensTotal,
+          deviationPercent);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang.StringUtils;
+import org.codenarc.rule.Rule;
+import org.codenarc.ruleset.RuleSet;
+import org.codenarc.util.PropertyUtil;
+import org.sonar.api.batch.rule.ActiveRule;
+
+/**
+ * CodeNarc rule set built in memory from the active rules: the same rules, with the same
+ * parameters, as in the profile written by {@link CodeNarcProfileExporter}, but without writing
+ * and parsing any XML.
+ */
+class ActiveRulesRuleSet implements RuleSet {
+
+  private final List<Rule> rules = new ArrayList<>();
+
+  ActiveRulesRuleSet(Collection<ActiveRule> activeRules) {
+    for (ActiveRule activeRule : activeRules) {
+      rules.add(newRule(activeRule));
+    }
+  }
+
+  @Override
+  public List<Rule> getRules() {
+    return rules;
+  }
+
+  static Rule newRule(ActiveRule activeRule) {
+    String ruleClass = activeRule.ruleKey().rule();
+    // SONARGROOV-40 : key of rule having null parameters have been suffixed with ".fixed"
+    if (ruleClass.endsWith(".fixed")) {
+      ruleClass = ruleClass.substring(0, ruleClass.length() - ".fixed".length());
+    }
+    Rule rule;
+    try {
+      rule =
+          Class.forName(ruleClass, true, ActiveRulesRuleSet.class.getClassLoader())
+              .asSubclass(Rule.class)
+              .getDeclaredConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalStateException("Can not create CodeNarc rule " + ruleClass, e);
+    }
+    for (Map.Entry<String, String> param : activeRule.params().entrySet()) {
+      if (StringUtils.isNotBlank(param.getValue())) {
+        PropertyUtil.setPropertyFromString(rule, param.getKey(), param.getValue());
+      }
+    }
+    return rule;
+  }
+}
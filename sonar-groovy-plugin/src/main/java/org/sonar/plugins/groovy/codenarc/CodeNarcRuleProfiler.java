@@ -0,0 +1,182 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.apache.commons.io.FileUtils;
+import org.codenarc.rule.Rule;
+import org.codenarc.rule.Violation;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Records the cost of each CodeNarc rule when {@link #PROFILE_RULES_KEY} is set: cumulative wall
+ * and CPU time, files the rule was applied to and violations it found, suppressed ones excluded.
+ * It can be fed from several analysis threads at once.
+ *
+ * <p>The time of a rule does not include the compilation of the AST it visits: when profiling, the
+ * AST of a file is compiled up to the phase of the rules before any of them is applied, even if
+ * none of them would have asked for it.
+ */
+class CodeNarcRuleProfiler {
+
+  static final String PROFILE_RULES_KEY = "sonar.groovy.codenarc.profileRules";
+  static final String JSON_REPORT = "rule-profile.json";
+  static final String CSV_REPORT = "rule-profile.csv";
+
+  private static final Logger LOG = Loggers.get(CodeNarcRuleProfiler.class);
+  private static final int SUMMARY_SIZE = 10;
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final boolean cpuTimeSupported =
+      threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+  private final Map<String, RuleCost> costs = new ConcurrentHashMap<>();
+
+  /**
+   * Applies a rule to one file, and records its cost. Its violations are recorded separately, see
+   * {@link #keptViolations(Rule, int)}.
+   */
+  List<Violation> apply(Rule rule, Supplier<List<Violation>> application) {
+    long wallStart = System.nanoTime();
+    long cpuStart = cpuTime();
+    List<Violation> violations = application.get();
+    costOf(rule).addFile(System.nanoTime() - wallStart, cpuTime() - cpuStart);
+    return violations;
+  }
+
+  /** Records the violations of a rule on one file which are not suppressed. */
+  void keptViolations(Rule rule, int violations) {
+    costOf(rule).violations.add(violations);
+  }
+
+  private RuleCost costOf(Rule rule) {
+    return costs.computeIfAbsent(rule.getName(), name -> new RuleCost());
+  }
+
+  private long cpuTime() {
+    return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0L;
+  }
+
+  /**
+   * Writes {@link #JSON_REPORT} and {@link #CSV_REPORT} to the given directory, rules being sorted
+   * by decreasing wall time, and logs the most expensive ones.
+   */
+  void report(File directory) {
+    List<Map.Entry<String, RuleCost>> sorted = sortedCosts();
+    File json = new File(directory, JSON_REPORT);
+    File csv = new File(directory, CSV_REPORT);
+    try {
+      FileUtils.forceMkdir(directory);
+      FileUtils.writeStringToFile(json, toJson(sorted), StandardCharsets.UTF_8);
+      FileUtils.writeStringToFile(csv, toCsv(sorted), StandardCharsets.UTF_8);
+      LOG.info("CodeNarc rule profile written to {} and {}", json, csv);
+    } catch (IOException e) {
+      LOG.warn("Unable to write CodeNarc rule profile to " + directory, e);
+    }
+    LOG.info("Most expensive CodeNarc rules (wall time, CPU time, files, violations):");
+    for (Map.Entry<String, RuleCost> entry :
+        sorted.subList(0, Math.min(SUMMARY_SIZE, sorted.size()))) {
+      RuleCost cost = entry.getValue();
+      LOG.info(
+          "  {}: {} ms, {} ms, {}, {}",
+          entry.getKey(),
+          millis(cost.wallNanos),
+          millis(cost.cpuNanos),
+          cost.files,
+          cost.violations);
+    }
+  }
+
+  List<Map.Entry<String, RuleCost>> sortedCosts() {
+    List<Map.Entry<String, RuleCost>> sorted = new ArrayList<>(costs.entrySet());
+    sorted.sort(
+        Comparator.comparing((Map.Entry<String, RuleCost> e) -> e.getValue().wallNanos.sum())
+            .reversed()
+            .thenComparing(Map.Entry::getKey));
+    return sorted;
+  }
+
+  private static String toJson(List<Map.Entry<String, RuleCost>> sorted) {
+    StringBuilder json = new StringBuilder("{\"rules\":[");
+    for (int i = 0; i < sorted.size(); i++) {
+      RuleCost cost = sorted.get(i).getValue();
+      json.append(i == 0 ? "\n" : ",\n")
+          .append("{\"rule\":\"")
+          .append(sorted.get(i).getKey().replace("\\", "\\\\").replace("\"", "\\\""))
+          .append("\",\"wallMs\":")
+          .append(millis(cost.wallNanos))
+          .append(",\"cpuMs\":")
+          .append(millis(cost.cpuNanos))
+          .append(",\"files\":")
+          .append(cost.files)
+          .append(",\"violations\":")
+          .append(cost.violations)
+          .append('}');
+    }
+    return json.append("\n]}\n").toString();
+  }
+
+  private static String toCsv(List<Map.Entry<String, RuleCost>> sorted) {
+    StringBuilder csv = new StringBuilder("rule,wall_ms,cpu_ms,files,violations\n");
+    for (Map.Entry<String, RuleCost> entry : sorted) {
+      RuleCost cost = entry.getValue();
+      csv.append(entry.getKey())
+          .append(',')
+          .append(millis(cost.wallNanos))
+          .append(',')
+          .append(millis(cost.cpuNanos))
+          .append(',')
+          .append(cost.files)
+          .append(',')
+          .append(cost.violations)
+          .append('\n');
+    }
+    return csv.toString();
+  }
+
+  private static String millis(LongAdder nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos.sum() / 1_000_000.0);
+  }
+
+  static class RuleCost {
+    final LongAdder wallNanos = new LongAdder();
+    final LongAdder cpuNanos = new LongAdder();
+    final LongAdder files = new LongAdder();
+    final LongAdder violations = new LongAdder();
+
+    private void addFile(long wall, long cpu) {
+      wallNanos.add(wall);
+      cpuNanos.add(cpu);
+      files.increment();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.codenarc.rule.Rule;
+import org.codenarc.ruleset.ListRuleSet;
+import org.codenarc.ruleset.RuleSet;
+import org.sonar.api.batch.rule.ActiveRule;
+import org.sonar.api.scanner.ScannerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Shares the CodeNarc rule sets between the modules analyzed by the same scanner: modules whose
+ * active CodeNarc rules and parameters are the same get the same rule instances.
+ *
+ * <p>Only rules without state are shared, see {@link #isStateful(Rule)}: stateful rules are
+ * instantiated again for each rule set handed out. Within a module, a single instance of each rule
+ * is still shared by the worker threads of {@link CodeNarcSourceAnalyzer}, which applies the
+ * stateful ones to one file at a time. It is safe to use from several threads.
+ */
+@ScannerSide
+public class CodeNarcRuleSetCache {
+  private static final Logger LOG = Loggers.get(CodeNarcRuleSetCache.class);
+
+  /**
+   * Classes of the CodeNarc rules which keep state of their own between files. The other rules of
+   * CodeNarc keep their state in the AST visitor they create for each file, and only have
+   * properties for their configuration: CodeNarc itself applies them to several files at once.
+   *
+   * <p>CrapMetricRule loads the Cobertura report it reads coverage from on first use.
+   */
+  static final Set<String> STATEFUL_RULES =
+      new HashSet<>(Arrays.asList("org.codenarc.rule.size.CrapMetricRule"));
+
+  private final Set<String> statefulRuleClasses;
+  private final Map<String, PreparedRuleSet> ruleSets = new HashMap<>();
+
+  public CodeNarcRuleSetCache() {
+    this(STATEFUL_RULES);
+  }
+
+  CodeNarcRuleSetCache(Set<String> statefulRuleClasses) {
+    this.statefulRuleClasses = statefulRuleClasses;
+  }
+
+  /** @return the rule set of the given active rules, whose stateless rules may be shared */
+  public RuleSet ruleSet(Collection<ActiveRule> activeRules) {
+    List<ActiveRule> sortedRules = new ArrayList<>(activeRules);
+    sortedRules.sort(Comparator.comparing(activeRule -> activeRule.ruleKey().toString()));
+    String hash = hash(sortedRules);
+    PreparedRuleSet prepared;
+    synchronized (this) {
+      prepared = ruleSets.get(hash);
+      if (prepared == null) {
+        prepared = new PreparedRuleSet(sortedRules);
+        ruleSets.put(hash, prepared);
+        LOG.debug(
+            "CodeNarc rule set {} prepared: {} rule(s), {} of them stateful",
+            hash,
+            sortedRules.size(),
+            prepared.statefulRules.cardinality());
+      } else {
+        LOG.debug("CodeNarc rule set {} reused", hash);
+      }
+    }
+    return prepared.newRuleSet();
+  }
+
+  /** Whether the given rule keeps state between files, according to {@link #STATEFUL_RULES}. */
+  public boolean isStateful(Rule rule) {
+    return statefulRuleClasses.contains(rule.getClass().getName());
+  }
+
+  synchronized int size() {
+    return ruleSets.size();
+  }
+
+  private static String hash(List<ActiveRule> sortedRules) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (ActiveRule activeRule : sortedRules) {
+      digest.update(activeRule.ruleKey().toString().getBytes(StandardCharsets.UTF_8));
+      for (Map.Entry<String, String> param : new TreeMap<>(activeRule.params()).entrySet()) {
+        digest.update(
+            ("\n" + param.getKey() + "=" + param.getValue()).getBytes(StandardCharsets.UTF_8));
+      }
+      digest.update((byte) 0);
+    }
+    StringBuilder hash = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hash.append(String.format("%02x", b));
+    }
+    return hash.toString();
+  }
+
+  private class PreparedRuleSet {
+    private final List<ActiveRule> activeRules;
+    private final List<Rule> rules;
+    private final BitSet statefulRules = new BitSet();
+
+    private PreparedRuleSet(List<ActiveRule> activeRules) {
+      this.activeRules = activeRules;
+      this.rules = new ActiveRulesRuleSet(activeRules).getRules();
+      for (int i = 0; i < rules.size(); i++) {
+        if (isStateful(rules.get(i))) {
+          statefulRules.set(i);
+        }
+      }
+    }
+
+    private RuleSet newRuleSet() {
+      List<Rule> ruleSetRules = new ArrayList<>(rules);
+      for (int i = statefulRules.nextSetBit(0); i >= 0; i = statefulRules.nextSetBit(i + 1)) {
+        ruleSetRules.set(i, ActiveRulesRuleSet.newRule(activeRules.get(i)));
+      }
+      return new ListRuleSet(ruleSetRules);
+    }
+  }
+}
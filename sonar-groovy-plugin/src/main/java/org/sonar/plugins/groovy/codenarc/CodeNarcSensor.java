@@ -19,20 +19,20 @@
 package org.sonar.plugins.groovy.codenarc;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
-import org.apache.commons.io.FileUtils;
-import org.codenarc.CodeNarcRunner;
 import org.codenarc.rule.Violation;
+import org.codenarc.ruleset.RuleSet;
+import org.sonar.api.PropertyType;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.rule.ActiveRule;
 import org.sonar.api.batch.rule.ActiveRules;
@@ -45,9 +45,14 @@ import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers;
+import org.sonar.plugins.groovy.GroovySensor;
 import org.sonar.plugins.groovy.codenarc.CodeNarcXMLParser.CodeNarcViolation;
 import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
 import org.sonar.plugins.groovy.foundation.GroovyFileSystem;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+import org.sonar.plugins.groovy.utils.FileWatchdog;
 
 public class CodeNarcSensor implements Sensor {
 
@@ -58,10 +63,29 @@ public class CodeNarcSensor implements Sensor {
 
   private final ActiveRules activeRules;
   private final GroovyFileSystem groovyFileSystem;
+  private final GroovySourceCache sourceCache;
+  private final GroovyAstProvider astProvider;
+  private final GroovyAnalysisTiers tiers;
+  private final CodeNarcRuleSetCache ruleSetCache;
 
-  public CodeNarcSensor(ActiveRules activeRules, GroovyFileSystem groovyFileSystem) {
+  public CodeNarcSensor(
+      ActiveRules activeRules,
+      GroovyFileSystem groovyFileSystem,
+      GroovySourceCache sourceCache,
+      GroovyAstProvider astProvider,
+      GroovyAnalysisTiers tiers,
+      CodeNarcRuleSetCache ruleSetCache) {
     this.activeRules = activeRules;
     this.groovyFileSystem = groovyFileSystem;
+    this.sourceCache = sourceCache;
+    this.astProvider = astProvider;
+    this.tiers = tiers;
+    this.ruleSetCache = ruleSetCache;
+    if (!activeRules.findByRepository(CodeNarcRulesDefinition.REPOSITORY_KEY).isEmpty()) {
+      // Otherwise the sensor is skipped, and would keep the shared sources and ASTs until the end
+      sourceCache.register(CodeNarcSourceAnalyzer.CONSUMER);
+      astProvider.register(CodeNarcSourceAnalyzer.CONSUMER);
+    }
   }
 
   @Override
@@ -74,6 +98,15 @@ public class CodeNarcSensor implements Sensor {
 
   @Override
   public void execute(SensorContext context) {
+    try {
+      executeCodeNarc(context);
+    } finally {
+      sourceCache.finish(CodeNarcSourceAnalyzer.CONSUMER);
+      astProvider.finish(CodeNarcSourceAnalyzer.CONSUMER);
+    }
+  }
+
+  private void executeCodeNarc(SensorContext context) {
     // Should we reuse existing report from CodeNarc ?
     if (context.config().hasKey(CODENARC_REPORT_PATHS)) {
       // Yes
@@ -153,45 +186,56 @@ public class CodeNarcSensor implements Sensor {
   private void runCodeNarc(SensorContext context) {
     LOG.info("Executing CodeNarc");
 
-    File workdir = new File(context.fileSystem().workDir(), "codenarc");
-    prepareWorkDir(workdir);
-    File codeNarcConfiguration = new File(workdir, "profile.xml");
-    exportCodeNarcConfiguration(codeNarcConfiguration);
-
-    CodeNarcRunner runner = new CodeNarcRunner();
-    runner.setRuleSetFiles("file:" + codeNarcConfiguration.getAbsolutePath());
+    Collection<ActiveRule> codeNarcRules =
+        activeRules.findByRepository(CodeNarcRulesDefinition.REPOSITORY_KEY);
+    RuleSet ruleSet = ruleSetCache.ruleSet(codeNarcRules);
+    Map<String, RuleKey> ruleKeys = new HashMap<>();
+    for (ActiveRule activeRule : codeNarcRules) {
+      ruleKeys.put(activeRule.internalKey(), activeRule.ruleKey());
+    }
+    Set<String> unknownRules = new HashSet<>();
+    CodeNarcRuleProfiler profiler =
+        context.config().getBoolean(CodeNarcRuleProfiler.PROFILE_RULES_KEY).orElse(false)
+            ? new CodeNarcRuleProfiler()
+            : null;
 
-    CodeNarcSourceAnalyzer analyzer =
-        new CodeNarcSourceAnalyzer(groovyFileSystem.sourceInputFiles());
-    runner.setSourceAnalyzer(analyzer);
-    runner.execute();
-    reportViolations(context, analyzer.getViolationsByFile());
+    try (FileWatchdog watchdog = FileWatchdog.create(context.config())) {
+      CodeNarcSourceAnalyzer analyzer =
+          new CodeNarcSourceAnalyzer(
+              groovyFileSystem.sourceInputFiles(),
+              sourceCache,
+              astProvider,
+              tiers,
+              watchdog,
+              GroovySensor.threads(context.config()),
+              profiler,
+              context.config().getBoolean(NodeKindFilter.SKIP_BY_NODE_KIND_KEY).orElse(true),
+              ruleSetCache::isStateful);
+      analyzer.analyze(
+          ruleSet,
+          (inputFile, violations) ->
+              reportViolations(context, ruleKeys, unknownRules, inputFile, violations));
+    }
+    if (profiler != null) {
+      profiler.report(new File(context.fileSystem().workDir(), "codenarc"));
+    }
   }
 
-  private void reportViolations(
-      SensorContext context, Map<InputFile, List<Violation>> violationsByFile) {
-    for (Entry<InputFile, List<Violation>> violationsOnFile : violationsByFile.entrySet()) {
-      InputFile groovyFile = violationsOnFile.getKey();
-      if (groovyFile == null) {
-        continue;
-      }
-      for (Violation violation : violationsOnFile.getValue()) {
-        String ruleKey = violation.getRule().getName();
-        ActiveRule activeRule =
-            context
-                .activeRules()
-                .findByInternalKey(CodeNarcRulesDefinition.REPOSITORY_KEY, ruleKey);
-        if (activeRule != null) {
-          insertIssue(
-              context,
-              activeRule.ruleKey(),
-              violation.getLineNumber(),
-              violation.getMessage(),
-              groovyFile);
-        } else {
-          LOG.warn(
-              "No such rule in SonarQube, so violation from CodeNarc will be ignored: {}", ruleKey);
-        }
+  private static void reportViolations(
+      SensorContext context,
+      Map<String, RuleKey> ruleKeys,
+      Set<String> unknownRules,
+      InputFile groovyFile,
+      List<Violation> violations) {
+    for (Violation violation : violations) {
+      String ruleName = violation.getRule().getName();
+      RuleKey ruleKey = ruleKeys.get(ruleName);
+      if (ruleKey != null) {
+        insertIssue(
+            context, ruleKey, violation.getLineNumber(), violation.getMessage(), groovyFile);
+      } else if (unknownRules.add(ruleName)) {
+        LOG.warn(
+            "No such rule in SonarQube, so violation from CodeNarc will be ignored: {}", ruleName);
       }
     }
   }
@@ -201,30 +245,11 @@ public class CodeNarcSensor implements Sensor {
     return context.fileSystem().inputFile(context.fileSystem().predicates().hasAbsolutePath(path));
   }
 
-  private void exportCodeNarcConfiguration(File file) {
-    try {
-      StringWriter writer = new StringWriter();
-      new CodeNarcProfileExporter(writer).exportProfile(activeRules);
-      FileUtils.writeStringToFile(file, writer.toString());
-    } catch (IOException e) {
-      throw new IllegalStateException("Can not generate CodeNarc configuration file", e);
-    }
-  }
-
-  private static void prepareWorkDir(File dir) {
-    try {
-      FileUtils.forceMkdir(dir);
-      // directory is cleaned, because Sonar 3.0 will not do this for us
-      FileUtils.cleanDirectory(dir);
-    } catch (IOException e) {
-      throw new IllegalStateException("Cannot create directory: " + dir, e);
-    }
-  }
-
   public static List<Object> getExtensions() {
     return Arrays.asList(
         CodeNarcRulesDefinition.class,
         CodeNarcSensor.class,
+        CodeNarcRuleSetCache.class,
         PropertyDefinition.builder(CODENARC_REPORT_PATHS)
             .name("CodeNarc Reports")
             .description(
@@ -233,6 +258,26 @@ public class CodeNarcSensor implements Sensor {
             .subCategory("CodeNarc")
             .multiValues(true)
             .deprecatedKey(CODENARC_REPORT_PATH)
+            .build(),
+        PropertyDefinition.builder(CodeNarcRuleProfiler.PROFILE_RULES_KEY)
+            .name("Profile CodeNarc Rules")
+            .description(
+                "If set to \"true\", the wall time, CPU time, files and violations of each CodeNarc rule are recorded, written to codenarc/rule-profile.json and codenarc/rule-profile.csv in the working directory, and the 10 most expensive rules are logged. "
+                    + "Measuring slows the analysis down.")
+            .category(Groovy.NAME)
+            .subCategory("CodeNarc")
+            .defaultValue("false")
+            .type(PropertyType.BOOLEAN)
+            .build(),
+        PropertyDefinition.builder(NodeKindFilter.SKIP_BY_NODE_KIND_KEY)
+            .name("Skip CodeNarc Rules By Node Kind")
+            .description(
+                "If set to \"true\", CodeNarc rules which only visit some kinds of AST nodes, such as switch statements or closures, are not applied to files which contain none of them. "
+                    + "The number of files skipped for each rule is logged.")
+            .category(Groovy.NAME)
+            .subCategory("CodeNarc")
+            .defaultValue("true")
+            .type(PropertyType.BOOLEAN)
             .build());
   }
 }
@@ -21,52 +21,340 @@ package org.sonar.plugins.groovy.codenarc;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.CompilePhase;
 import org.codenarc.analyzer.AbstractSourceAnalyzer;
 import org.codenarc.results.DirectoryResults;
 import org.codenarc.results.FileResults;
 import org.codenarc.results.Results;
+import org.codenarc.rule.AbstractAstVisitorRule;
+import org.codenarc.rule.Rule;
 import org.codenarc.rule.Violation;
 import org.codenarc.ruleset.RuleSet;
-import org.codenarc.source.SourceString;
+import org.codenarc.source.SourceCode;
+import org.codenarc.source.SuppressionAnalyzer;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers.Tier;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+import org.sonar.plugins.groovy.utils.FileWatchdog;
+import org.sonar.plugins.groovy.utils.OrderedParallelExecutor;
 
 public class CodeNarcSourceAnalyzer extends AbstractSourceAnalyzer {
+  /**
+   * Name under which CodeNarc registers to {@link GroovySourceCache} and {@link GroovyAstProvider}.
+   */
+  public static final String CONSUMER = "CodeNarc";
+
   private static final Logger LOG = Loggers.get(CodeNarcSourceAnalyzer.class);
+  private static final int NOT_COMPILED = 0;
 
-  private final Map<InputFile, List<Violation>> violationsByFile = new HashMap<>();
   private final List<InputFile> sourceFiles;
+  private final GroovySourceCache sourceCache;
+  private final GroovyAstProvider astProvider;
+  private final GroovyAnalysisTiers tiers;
+  private final FileWatchdog watchdog;
+  private final int threads;
+  @Nullable private final CodeNarcRuleProfiler profiler;
+  private final boolean skipByNodeKind;
+  private final Predicate<Rule> statefulRules;
+  private final Map<Integer, LongAdder> filesByLastPhase = new ConcurrentHashMap<>();
 
-  public CodeNarcSourceAnalyzer(List<InputFile> sourceFiles) {
+  public CodeNarcSourceAnalyzer(
+      List<InputFile> sourceFiles,
+      GroovySourceCache sourceCache,
+      GroovyAstProvider astProvider,
+      GroovyAnalysisTiers tiers,
+      FileWatchdog watchdog,
+      int threads,
+      @Nullable CodeNarcRuleProfiler profiler,
+      boolean skipByNodeKind,
+      Predicate<Rule> statefulRules) {
     this.sourceFiles = sourceFiles;
+    this.sourceCache = sourceCache;
+    this.astProvider = astProvider;
+    this.tiers = tiers;
+    this.watchdog = watchdog;
+    this.threads = threads;
+    this.profiler = profiler;
+    this.skipByNodeKind = skipByNodeKind;
+    this.statefulRules = statefulRules;
   }
 
+  /**
+   * Builds the CodeNarc results tree of all files. The sensor does not use it, as it keeps the
+   * violations of the whole project in memory: see {@link #analyze(RuleSet, BiConsumer)}.
+   */
   @Override
   public Results analyze(RuleSet ruleSet) {
-    List<FileResults> resultsByFile = processFiles(ruleSet);
     DirectoryResults directoryResults = new DirectoryResults(".");
-    resultsByFile.forEach(directoryResults::addChild);
+    analyze(
+        ruleSet,
+        (inputFile, violations) ->
+            directoryResults.addChild(new FileResults(inputFile.uri().toString(), violations)));
     return directoryResults;
   }
 
-  private List<FileResults> processFiles(RuleSet ruleSet) {
-    List<FileResults> results = new LinkedList<>();
-    for (InputFile inputFile : sourceFiles) {
-      try {
-        List<Violation> violations = collectViolations(new SourceString(inputFile.contents()), ruleSet);
-        violationsByFile.put(inputFile, violations);
-        FileResults result = new FileResults(inputFile.uri().toString(), violations);
-        results.add(result);
-      } catch (IOException e) {
-        LOG.error("Could not read input file: " + inputFile.toString(), e);
+  /**
+   * Analyzes the files on up to {@code threads} worker threads. The violations of each file are
+   * handed to {@code violationConsumer} on the calling thread, in file order, as soon as the file
+   * is done, so that they are the same as those of a sequential run and are not kept afterwards.
+   * Files which are not analyzed, because of their tier or of the watchdog, are not handed over.
+   */
+  public void analyze(RuleSet ruleSet, BiConsumer<InputFile, List<Violation>> violationConsumer) {
+    List<Rule> rules = new ArrayList<>();
+    for (Object rule : ruleSet.getRules()) {
+      rules.add((Rule) rule);
+    }
+    NodeKindFilter nodeKindFilter = skipByNodeKind ? new NodeKindFilter(rules) : null;
+    Map<Rule, Lock> statefulRuleLocks = new IdentityHashMap<>();
+    for (Rule rule : rules) {
+      if (statefulRules.test(rule)) {
+        statefulRuleLocks.put(rule, new ReentrantLock());
+      }
+    }
+    PhasedRules allRules =
+        new PhasedRules(
+            rules,
+            true,
+            nodeKindFilter == null || nodeKindFilter.isEmpty() ? null : nodeKindFilter,
+            statefulRuleLocks);
+    PhasedRules nonAstRules =
+        new PhasedRules(
+            rules.stream()
+                .filter(rule -> !(rule instanceof AbstractAstVisitorRule))
+                .collect(Collectors.toList()),
+            false,
+            null,
+            statefulRuleLocks);
+    OrderedParallelExecutor.forEachOrdered(
+        sourceFiles,
+        threads,
+        inputFile -> {
+          try {
+            return processFile(inputFile, allRules, nonAstRules);
+          } finally {
+            sourceCache.release(inputFile, CONSUMER);
+            astProvider.release(inputFile, CONSUMER);
+          }
+        },
+        (inputFile, violations) ->
+            violations.ifPresent(v -> violationConsumer.accept(inputFile, v)));
+    logLastPhases();
+    if (allRules.nodeKindFilter != null) {
+      allRules.nodeKindFilter.logSkips();
+    }
+  }
+
+  private Optional<List<Violation>> processFile(
+      InputFile inputFile, PhasedRules allRules, PhasedRules nonAstRules) {
+    Tier tier = tiers.tierOf(inputFile);
+    if (!tier.appliesRules()) {
+      return Optional.empty();
+    }
+    PhasedRules rules = tier.compilesAst() ? allRules : nonAstRules;
+    try {
+      String source = sourceCache.get(inputFile).toString();
+      return watchdog.run(
+          "CodeNarc", inputFile, () -> collectViolations(inputFile, source, rules));
+    } catch (IOException e) {
+      LOG.error("Could not read input file: " + inputFile.toString(), e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Same as {@link AbstractSourceAnalyzer#collectViolations(SourceCode, RuleSet)}, except that:
+   *
+   * <ul>
+   *   <li>the ASTs come from {@link GroovyAstProvider}, so that GMetrics and CodeNarc compile each
+   *       file once;
+   *   <li>rules run by increasing compiler phase, and a file is only compiled up to a phase when a
+   *       rule of that phase asks for its AST;
+   *   <li>AST visitor rules are skipped on files without the nodes they visit, see {@link
+   *       NodeKindFilter};
+   *   <li>files whose {@link Tier} does not compile them get no AST: only the rules which do not
+   *       visit it are applied, and {@code SuppressWarnings} annotations are ignored.
+   * </ul>
+   */
+  private List<Violation> collectViolations(
+      InputFile inputFile, String source, PhasedRules rules) {
+    Map<Integer, SharedAstSourceCode> sourceByPhase = new HashMap<>();
+    // Reading the annotations compiles the file
+    SuppressionAnalyzer suppressionAnalyzer =
+        rules.compilesAst
+            ? sourceAtPhase(
+                    sourceByPhase, inputFile, source, rules, SourceCode.DEFAULT_COMPILER_PHASE)
+                .getSuppressionAnalyzer()
+            : null;
+    BitSet fileKinds = nodeKindsOf(sourceByPhase, inputFile, source, rules);
+    Map<Rule, List<Violation>> violationsByRule = new IdentityHashMap<>();
+    rules.byPhase.forEach(
+        (phase, phaseRules) -> {
+          SourceCode sourceCode = sourceAtPhase(sourceByPhase, inputFile, source, rules, phase);
+          boolean compiled = profiler == null || !rules.compilesAst;
+          for (Rule rule : phaseRules) {
+            if ((suppressionAnalyzer != null && suppressionAnalyzer.isRuleSuppressed(rule))
+                || (fileKinds != null && rules.nodeKindFilter.skips(rule, fileKinds))) {
+              continue;
+            }
+            if (!compiled) {
+              // Not to count the compilation in the time of the first rule asking for the AST
+              sourceCode.getAst();
+              compiled = true;
+            }
+            List<Violation> violations = apply(rule, sourceCode, rules.statefulRuleLocks.get(rule));
+            if (suppressionAnalyzer != null) {
+              violations.removeIf(suppressionAnalyzer::isViolationSuppressed);
+            }
+            if (profiler != null) {
+              profiler.keptViolations(rule, violations.size());
+            }
+            violationsByRule.put(rule, violations);
+          }
+        });
+    recordLastPhase(sourceByPhase);
+
+    List<Violation> allViolations = new ArrayList<>();
+    for (Rule rule : rules.inOrder) {
+      List<Violation> violations = violationsByRule.get(rule);
+      if (violations != null) {
+        allViolations.addAll(violations);
+      }
+    }
+    allViolations.sort(
+        Comparator.comparing(
+            Violation::getLineNumber, Comparator.nullsFirst(Comparator.naturalOrder())));
+    return allViolations;
+  }
+
+  /**
+   * A single instance of each rule is shared by the worker threads: stateful rules, see {@link
+   * CodeNarcRuleSetCache#isStateful(Rule)}, come with a lock so that they are applied to one file
+   * at a time, as in a sequential run. Waiting for it stops when the watchdog cancels the task.
+   */
+  private List<Violation> apply(Rule rule, SourceCode sourceCode, @Nullable Lock statefulRuleLock) {
+    if (statefulRuleLock == null) {
+      return apply(rule, sourceCode);
+    }
+    try {
+      statefulRuleLock.lockInterruptibly();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for rule " + rule.getName(), e);
+    }
+    try {
+      return apply(rule, sourceCode);
+    } finally {
+      statefulRuleLock.unlock();
+    }
+  }
+
+  private List<Violation> apply(Rule rule, SourceCode sourceCode) {
+    return profiler == null
+        ? new ArrayList<>(rule.applyTo(sourceCode))
+        : profiler.apply(rule, () -> new ArrayList<>(rule.applyTo(sourceCode)));
+  }
+
+  private SharedAstSourceCode sourceAtPhase(
+      Map<Integer, SharedAstSourceCode> sourceByPhase,
+      InputFile inputFile,
+      String source,
+      PhasedRules rules,
+      int phase) {
+    return sourceByPhase.computeIfAbsent(
+        phase,
+        p -> new SharedAstSourceCode(source, inputFile, rules.compilesAst ? astProvider : null, p));
+  }
+
+  @CheckForNull
+  private BitSet nodeKindsOf(
+      Map<Integer, SharedAstSourceCode> sourceByPhase,
+      InputFile inputFile,
+      String source,
+      PhasedRules rules) {
+    if (rules.nodeKindFilter == null) {
+      return null;
+    }
+    ModuleNode ast =
+        sourceAtPhase(sourceByPhase, inputFile, source, rules, SourceCode.DEFAULT_COMPILER_PHASE)
+            .getAst();
+    return ast == null ? null : rules.nodeKindFilter.kindsOf(ast);
+  }
+
+  /** Counts the file under the last compiler phase its AST was asked for, if any. */
+  private void recordLastPhase(Map<Integer, SharedAstSourceCode> sourceByPhase) {
+    int lastPhase =
+        sourceByPhase.values().stream()
+            .filter(SharedAstSourceCode::isAstRequested)
+            .mapToInt(SharedAstSourceCode::getAstCompilerPhase)
+            .max()
+            .orElse(NOT_COMPILED);
+    filesByLastPhase.computeIfAbsent(lastPhase, p -> new LongAdder()).increment();
+  }
+
+  private void logLastPhases() {
+    if (filesByLastPhase.isEmpty()) {
+      return;
+    }
+    StringJoiner summary = new StringJoiner(", ");
+    new TreeMap<>(filesByLastPhase)
+        .forEach(
+            (phase, files) ->
+                summary.add(
+                    (phase == NOT_COMPILED
+                            ? "not compiled"
+                            : CompilePhase.fromPhaseNumber(phase).name())
+                        + ": "
+                        + files.sum()));
+    LOG.info("CodeNarc files by last compiler phase: {}", summary);
+  }
+
+  /** Rules in their rule set order, and grouped by increasing compiler phase. */
+  private static class PhasedRules {
+    private final List<Rule> inOrder;
+    private final SortedMap<Integer, List<Rule>> byPhase = new TreeMap<>();
+    /** Whether the files these rules are applied to are compiled. */
+    private final boolean compilesAst;
+
+    @Nullable private final NodeKindFilter nodeKindFilter;
+    private final Map<Rule, Lock> statefulRuleLocks;
+
+    private PhasedRules(
+        List<Rule> rules,
+        boolean compilesAst,
+        @Nullable NodeKindFilter nodeKindFilter,
+        Map<Rule, Lock> statefulRuleLocks) {
+      this.inOrder = rules;
+      this.compilesAst = compilesAst;
+      this.nodeKindFilter = nodeKindFilter;
+      this.statefulRuleLocks = statefulRuleLocks;
+      for (Rule rule : rules) {
+        byPhase.computeIfAbsent(rule.getCompilerPhase(), p -> new ArrayList<>()).add(rule);
       }
     }
-    return results;
   }
 
   @Override
@@ -74,8 +362,4 @@ public class CodeNarcSourceAnalyzer extends AbstractSourceAnalyzer {
     return new ArrayList<>();
   }
 
-  public Map<InputFile, List<Violation>> getViolationsByFile() {
-    return violationsByFile;
-  }
-
 }
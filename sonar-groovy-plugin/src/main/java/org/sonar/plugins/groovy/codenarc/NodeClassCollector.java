@@ -0,0 +1,378 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ConstructorNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ArrayExpression;
+import org.codehaus.groovy.ast.expr.AttributeExpression;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.BitwiseNegationExpression;
+import org.codehaus.groovy.ast.expr.BooleanExpression;
+import org.codehaus.groovy.ast.expr.CastExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.ClosureListExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.ConstructorCallExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.ElvisOperatorExpression;
+import org.codehaus.groovy.ast.expr.FieldExpression;
+import org.codehaus.groovy.ast.expr.GStringExpression;
+import org.codehaus.groovy.ast.expr.LambdaExpression;
+import org.codehaus.groovy.ast.expr.ListExpression;
+import org.codehaus.groovy.ast.expr.MapEntryExpression;
+import org.codehaus.groovy.ast.expr.MapExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.MethodPointerExpression;
+import org.codehaus.groovy.ast.expr.MethodReferenceExpression;
+import org.codehaus.groovy.ast.expr.NotExpression;
+import org.codehaus.groovy.ast.expr.PostfixExpression;
+import org.codehaus.groovy.ast.expr.PrefixExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.RangeExpression;
+import org.codehaus.groovy.ast.expr.SpreadExpression;
+import org.codehaus.groovy.ast.expr.SpreadMapExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.ast.expr.TernaryExpression;
+import org.codehaus.groovy.ast.expr.TupleExpression;
+import org.codehaus.groovy.ast.expr.UnaryMinusExpression;
+import org.codehaus.groovy.ast.expr.UnaryPlusExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.classgen.BytecodeExpression;
+import org.codehaus.groovy.control.SourceUnit;
+
+/**
+ * Collects the classes of the nodes of an AST for {@link NodeKindFilter}. It walks the same nodes
+ * as CodeNarc's own AST visitors, and {@link NodeKindFilter} only relies on the node types it has
+ * a visit method for.
+ */
+final class NodeClassCollector extends ClassCodeVisitorSupport {
+
+  private final Set<Class<?>> classes = new HashSet<>();
+
+  private NodeClassCollector() {}
+
+  /** The classes of the module and of every node below it. */
+  static Set<Class<?>> classesOf(ModuleNode ast) {
+    NodeClassCollector collector = new NodeClassCollector();
+    collector.collect(ast);
+    for (ClassNode classNode : ast.getClasses()) {
+      collector.visitClass(classNode);
+    }
+    return collector.classes;
+  }
+
+  private void collect(ASTNode node) {
+    classes.add(node.getClass());
+  }
+
+  @Override
+  protected SourceUnit getSourceUnit() {
+    return null;
+  }
+
+  @Override
+  public void visitClass(ClassNode node) {
+    collect(node);
+    super.visitClass(node);
+  }
+
+  @Override
+  protected void visitAnnotation(AnnotationNode node) {
+    collect(node);
+    super.visitAnnotation(node);
+  }
+
+  @Override
+  public void visitField(FieldNode node) {
+    collect(node);
+    super.visitField(node);
+  }
+
+  @Override
+  public void visitProperty(PropertyNode node) {
+    collect(node);
+    super.visitProperty(node);
+  }
+
+  /** Also walks the default values of parameters, which {@link ClassCodeVisitorSupport} skips. */
+  @Override
+  protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+    for (Parameter parameter : node.getParameters()) {
+      if (parameter.hasInitialExpression()) {
+        parameter.getInitialExpression().visit(this);
+      }
+    }
+    super.visitConstructorOrMethod(node, isConstructor);
+  }
+
+  @Override
+  public void visitConstructor(ConstructorNode node) {
+    collect(node);
+    super.visitConstructor(node);
+  }
+
+  @Override
+  public void visitMethod(MethodNode node) {
+    collect(node);
+    super.visitMethod(node);
+  }
+
+  /** Called by {@link ClassCodeVisitorSupport} before it visits any statement. */
+  @Override
+  protected void visitStatement(Statement statement) {
+    collect(statement);
+  }
+
+  @Override
+  public void visitMethodCallExpression(MethodCallExpression expression) {
+    collect(expression);
+    super.visitMethodCallExpression(expression);
+  }
+
+  @Override
+  public void visitStaticMethodCallExpression(StaticMethodCallExpression expression) {
+    collect(expression);
+    super.visitStaticMethodCallExpression(expression);
+  }
+
+  @Override
+  public void visitConstructorCallExpression(ConstructorCallExpression expression) {
+    collect(expression);
+    super.visitConstructorCallExpression(expression);
+  }
+
+  @Override
+  public void visitTernaryExpression(TernaryExpression expression) {
+    collect(expression);
+    super.visitTernaryExpression(expression);
+  }
+
+  @Override
+  public void visitShortTernaryExpression(ElvisOperatorExpression expression) {
+    collect(expression);
+    super.visitShortTernaryExpression(expression);
+  }
+
+  @Override
+  public void visitBinaryExpression(BinaryExpression expression) {
+    collect(expression);
+    super.visitBinaryExpression(expression);
+  }
+
+  @Override
+  public void visitPrefixExpression(PrefixExpression expression) {
+    collect(expression);
+    super.visitPrefixExpression(expression);
+  }
+
+  @Override
+  public void visitPostfixExpression(PostfixExpression expression) {
+    collect(expression);
+    super.visitPostfixExpression(expression);
+  }
+
+  @Override
+  public void visitBooleanExpression(BooleanExpression expression) {
+    collect(expression);
+    super.visitBooleanExpression(expression);
+  }
+
+  @Override
+  public void visitClosureExpression(ClosureExpression expression) {
+    collect(expression);
+    super.visitClosureExpression(expression);
+  }
+
+  @Override
+  public void visitLambdaExpression(LambdaExpression expression) {
+    collect(expression);
+    super.visitLambdaExpression(expression);
+  }
+
+  @Override
+  public void visitTupleExpression(TupleExpression expression) {
+    collect(expression);
+    super.visitTupleExpression(expression);
+  }
+
+  @Override
+  public void visitMapExpression(MapExpression expression) {
+    collect(expression);
+    super.visitMapExpression(expression);
+  }
+
+  @Override
+  public void visitMapEntryExpression(MapEntryExpression expression) {
+    collect(expression);
+    super.visitMapEntryExpression(expression);
+  }
+
+  @Override
+  public void visitListExpression(ListExpression expression) {
+    collect(expression);
+    super.visitListExpression(expression);
+  }
+
+  @Override
+  public void visitRangeExpression(RangeExpression expression) {
+    collect(expression);
+    super.visitRangeExpression(expression);
+  }
+
+  @Override
+  public void visitPropertyExpression(PropertyExpression expression) {
+    collect(expression);
+    super.visitPropertyExpression(expression);
+  }
+
+  @Override
+  public void visitAttributeExpression(AttributeExpression expression) {
+    collect(expression);
+    super.visitAttributeExpression(expression);
+  }
+
+  @Override
+  public void visitFieldExpression(FieldExpression expression) {
+    collect(expression);
+    super.visitFieldExpression(expression);
+  }
+
+  @Override
+  public void visitMethodPointerExpression(MethodPointerExpression expression) {
+    collect(expression);
+    super.visitMethodPointerExpression(expression);
+  }
+
+  @Override
+  public void visitMethodReferenceExpression(MethodReferenceExpression expression) {
+    collect(expression);
+    super.visitMethodReferenceExpression(expression);
+  }
+
+  @Override
+  public void visitConstantExpression(ConstantExpression expression) {
+    collect(expression);
+    super.visitConstantExpression(expression);
+  }
+
+  @Override
+  public void visitClassExpression(ClassExpression expression) {
+    collect(expression);
+    super.visitClassExpression(expression);
+  }
+
+  @Override
+  public void visitVariableExpression(VariableExpression expression) {
+    collect(expression);
+    super.visitVariableExpression(expression);
+  }
+
+  @Override
+  public void visitDeclarationExpression(DeclarationExpression expression) {
+    collect(expression);
+    super.visitDeclarationExpression(expression);
+  }
+
+  @Override
+  public void visitGStringExpression(GStringExpression expression) {
+    collect(expression);
+    super.visitGStringExpression(expression);
+  }
+
+  @Override
+  public void visitArrayExpression(ArrayExpression expression) {
+    collect(expression);
+    super.visitArrayExpression(expression);
+  }
+
+  @Override
+  public void visitSpreadExpression(SpreadExpression expression) {
+    collect(expression);
+    super.visitSpreadExpression(expression);
+  }
+
+  @Override
+  public void visitSpreadMapExpression(SpreadMapExpression expression) {
+    collect(expression);
+    super.visitSpreadMapExpression(expression);
+  }
+
+  @Override
+  public void visitNotExpression(NotExpression expression) {
+    collect(expression);
+    super.visitNotExpression(expression);
+  }
+
+  @Override
+  public void visitUnaryMinusExpression(UnaryMinusExpression expression) {
+    collect(expression);
+    super.visitUnaryMinusExpression(expression);
+  }
+
+  @Override
+  public void visitUnaryPlusExpression(UnaryPlusExpression expression) {
+    collect(expression);
+    super.visitUnaryPlusExpression(expression);
+  }
+
+  @Override
+  public void visitBitwiseNegationExpression(BitwiseNegationExpression expression) {
+    collect(expression);
+    super.visitBitwiseNegationExpression(expression);
+  }
+
+  @Override
+  public void visitCastExpression(CastExpression expression) {
+    collect(expression);
+    super.visitCastExpression(expression);
+  }
+
+  @Override
+  public void visitArgumentlistExpression(ArgumentListExpression expression) {
+    collect(expression);
+    super.visitArgumentlistExpression(expression);
+  }
+
+  @Override
+  public void visitClosureListExpression(ClosureListExpression expression) {
+    collect(expression);
+    super.visitClosureListExpression(expression);
+  }
+
+  @Override
+  public void visitBytecodeExpression(BytecodeExpression expression) {
+    collect(expression);
+    super.visitBytecodeExpression(expression);
+  }
+}
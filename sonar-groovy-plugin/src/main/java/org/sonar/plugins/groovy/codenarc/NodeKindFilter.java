@@ -0,0 +1,240 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.CheckForNull;
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codenarc.rule.AbstractAstVisitorRule;
+import org.codenarc.rule.AbstractRule;
+import org.codenarc.rule.Rule;
+import org.codenarc.source.SourceCode;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Skips the CodeNarc AST visitor rules which can not raise any violation on a file, because the
+ * file contains none of the kinds of nodes their visitor visits.
+ *
+ * <p>A cheap walk of the AST of each file records the classes of its nodes in a bit set. The node
+ * types of a rule are the parameter types of the visit methods its AST visitor overrides, found by
+ * reflection: the rule is skipped when no node of the file is an instance of one of them. Rules
+ * are always applied when their node types can not be known for sure: rules which are not AST
+ * visitor rules or override {@code applyTo}, rules of a later compiler phase, and visitors with a
+ * visit method for a type of node which {@link NodeClassCollector} does not collect.
+ *
+ * <p>It can be used from several analysis threads at once.
+ */
+class NodeKindFilter {
+
+  static final String SKIP_BY_NODE_KIND_KEY = "sonar.groovy.codenarc.skipByNodeKind";
+
+  private static final Logger LOG = Loggers.get(NodeKindFilter.class);
+
+  /** Generic CodeNarc visitors, whose visit methods only walk the AST. */
+  private static final Set<String> GENERIC_VISITORS =
+      new HashSet<>(
+          Arrays.asList(
+              "org.codenarc.rule.AbstractAstVisitor",
+              "org.codenarc.rule.ClassCodeVisitorSupportHack"));
+
+  private static final List<Class<?>> WALKED_TYPES = walkedTypes();
+
+  private final Map<Rule, NodeTypes> nodeTypesByRule = new IdentityHashMap<>();
+  private final Map<Class<?>, Integer> kindIds = new HashMap<>();
+  private final List<Class<?>> kinds = new ArrayList<>();
+
+  NodeKindFilter(Collection<Rule> rules) {
+    for (Rule rule : rules) {
+      List<Class<?>> nodeTypes = nodeTypesOf(rule);
+      if (nodeTypes != null) {
+        nodeTypesByRule.put(rule, new NodeTypes(nodeTypes));
+      }
+    }
+  }
+
+  /** Whether no rule can be skipped. */
+  boolean isEmpty() {
+    return nodeTypesByRule.isEmpty();
+  }
+
+  /** The kinds of nodes found in the given AST. */
+  BitSet kindsOf(ModuleNode ast) {
+    Set<Class<?>> classes = NodeClassCollector.classesOf(ast);
+    BitSet fileKinds = new BitSet();
+    synchronized (this) {
+      for (Class<?> nodeClass : classes) {
+        fileKinds.set(
+            kindIds.computeIfAbsent(
+                nodeClass,
+                c -> {
+                  kinds.add(c);
+                  return kinds.size() - 1;
+                }));
+      }
+    }
+    return fileKinds;
+  }
+
+  private synchronized Class<?> kind(int kindId) {
+    return kinds.get(kindId);
+  }
+
+  /**
+   * Whether the given rule can not raise any violation on a file with the given kinds of nodes, in
+   * which case the file is counted as skipped for the rule.
+   */
+  boolean skips(Rule rule, BitSet fileKinds) {
+    NodeTypes nodeTypes = nodeTypesByRule.get(rule);
+    if (nodeTypes == null || nodeTypes.matches(fileKinds)) {
+      return false;
+    }
+    nodeTypes.skippedFiles.increment();
+    return true;
+  }
+
+  /** Logs how many files each rule has been skipped on. */
+  void logSkips() {
+    List<Map.Entry<Rule, NodeTypes>> skipped = new ArrayList<>();
+    long total = 0;
+    for (Map.Entry<Rule, NodeTypes> entry : nodeTypesByRule.entrySet()) {
+      long files = entry.getValue().skippedFiles.sum();
+      if (files > 0) {
+        skipped.add(entry);
+        total += files;
+      }
+    }
+    if (skipped.isEmpty()) {
+      return;
+    }
+    skipped.sort(
+        (a, b) -> Long.compare(b.getValue().skippedFiles.sum(), a.getValue().skippedFiles.sum()));
+    StringJoiner counts = new StringJoiner(", ");
+    skipped.forEach(
+        entry -> counts.add(entry.getKey().getName() + ": " + entry.getValue().skippedFiles));
+    LOG.info(
+        "CodeNarc rules skipped {} time(s) on files without the nodes they visit: {}",
+        total,
+        counts);
+  }
+
+  @CheckForNull
+  static List<Class<?>> nodeTypesOf(Rule rule) {
+    if (!(rule instanceof AbstractAstVisitorRule)
+        || rule.getCompilerPhase() != SourceCode.DEFAULT_COMPILER_PHASE
+        || overridesApplyTo(rule.getClass())) {
+      return null;
+    }
+    Class<?> visitorClass;
+    try {
+      visitorClass = ((AbstractAstVisitorRule) rule).getAstVisitor().getClass();
+    } catch (RuntimeException e) {
+      LOG.debug("Unable to create the AST visitor of CodeNarc rule {}", rule.getName(), e);
+      return null;
+    }
+    List<Class<?>> nodeTypes = new ArrayList<>();
+    for (Class<?> c = visitorClass; !isGenericVisitor(c); c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods()) {
+        if (!method.getName().startsWith("visit")
+            || method.isSynthetic()
+            || Modifier.isStatic(method.getModifiers())) {
+          continue;
+        }
+        if (method.getParameterCount() == 0 || !isWalked(method.getParameterTypes()[0])) {
+          return null;
+        }
+        nodeTypes.add(method.getParameterTypes()[0]);
+      }
+    }
+    return nodeTypes.isEmpty() ? null : nodeTypes;
+  }
+
+  private static boolean overridesApplyTo(Class<?> ruleClass) {
+    try {
+      return ruleClass.getMethod("applyTo", SourceCode.class, List.class).getDeclaringClass()
+              != AbstractAstVisitorRule.class
+          || ruleClass.getMethod("applyTo", SourceCode.class).getDeclaringClass()
+              != AbstractRule.class;
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+  }
+
+  private static boolean isGenericVisitor(Class<?> visitorClass) {
+    return visitorClass == null
+        || visitorClass == Object.class
+        || visitorClass.getName().startsWith("org.codehaus.groovy.")
+        || GENERIC_VISITORS.contains(visitorClass.getName());
+  }
+
+  /** Whether every node of the given type is collected by {@link NodeClassCollector}. */
+  private static boolean isWalked(Class<?> nodeType) {
+    return WALKED_TYPES.stream().anyMatch(walked -> walked.isAssignableFrom(nodeType));
+  }
+
+  private static List<Class<?>> walkedTypes() {
+    List<Class<?>> types = new ArrayList<>();
+    types.add(ModuleNode.class);
+    for (Method method : NodeClassCollector.class.getDeclaredMethods()) {
+      if (method.getName().startsWith("visit")
+          && method.getParameterCount() > 0
+          && ASTNode.class.isAssignableFrom(method.getParameterTypes()[0])) {
+        types.add(method.getParameterTypes()[0]);
+      }
+    }
+    return types;
+  }
+
+  /** Node types of a rule, and which of the kinds of nodes seen so far are instances of them. */
+  private class NodeTypes {
+    private final List<Class<?>> types;
+    private final BitSet matchingKinds = new BitSet();
+    private final LongAdder skippedFiles = new LongAdder();
+    private int checkedKinds = 0;
+
+    private NodeTypes(List<Class<?>> types) {
+      this.types = types;
+    }
+
+    private synchronized boolean matches(BitSet fileKinds) {
+      for (; checkedKinds < fileKinds.length(); checkedKinds++) {
+        Class<?> kind = kind(checkedKinds);
+        if (types.stream().anyMatch(type -> type.isAssignableFrom(kind))) {
+          matchingKinds.set(checkedKinds);
+        }
+      }
+      return matchingKinds.intersects(fileKinds);
+    }
+  }
+}
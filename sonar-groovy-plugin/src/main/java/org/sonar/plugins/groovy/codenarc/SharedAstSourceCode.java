@@ -0,0 +1,76 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import java.io.IOException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codenarc.source.SourceString;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
+
+/**
+ * CodeNarc source whose AST, at the given compiler phase, comes from {@link GroovyAstProvider}.
+ * Without a provider, the file is never compiled and there is no AST.
+ */
+class SharedAstSourceCode extends SourceString {
+  private static final Logger LOG = Loggers.get(SharedAstSourceCode.class);
+
+  private final InputFile inputFile;
+  @Nullable private final GroovyAstProvider astProvider;
+  private final int phase;
+  private volatile boolean astRequested;
+
+  SharedAstSourceCode(
+      String source, InputFile inputFile, @Nullable GroovyAstProvider astProvider, int phase) {
+    super(source);
+    this.inputFile = inputFile;
+    this.astProvider = astProvider;
+    this.phase = phase;
+  }
+
+  @CheckForNull
+  @Override
+  public ModuleNode getAst() {
+    if (astProvider == null) {
+      return null;
+    }
+    astRequested = true;
+    try {
+      return astProvider.get(inputFile, phase);
+    } catch (IOException e) {
+      LOG.error("Could not read input file: " + inputFile.toString(), e);
+      return null;
+    }
+  }
+
+  /** Whether a rule asked for the AST, so that the file has been compiled up to the phase. */
+  boolean isAstRequested() {
+    return astRequested;
+  }
+
+  @Override
+  public int getAstCompilerPhase() {
+    return phase;
+  }
+}
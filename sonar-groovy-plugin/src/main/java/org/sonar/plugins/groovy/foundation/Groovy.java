@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.lang.StringUtils;
+import org.sonar.api.PropertyType;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.config.PropertyDefinition.ConfigScope;
@@ -86,6 +87,8 @@ public class Groovy extends AbstractLanguage {
     return Arrays.asList(
         Groovy.class,
         GroovyFileSystem.class,
+        GroovySourceCache.class,
+        GroovyAstProvider.class,
         PropertyDefinition.builder(FILE_SUFFIXES_KEY)
             .name("File suffixes")
             .description(
@@ -95,6 +98,24 @@ public class Groovy extends AbstractLanguage {
             .onConfigScopes(ConfigScope.PROJECT)
             .defaultValue(DEFAULT_FILE_SUFFIXES)
             .multiValues(true)
+            .build(),
+        PropertyDefinition.builder(GroovySourceCache.MAX_SIZE_KEY)
+            .name("Source cache size")
+            .description(
+                "Maximum size, in MB, of the decoded Groovy sources kept in memory until every sensor needing them is done with them. Once it is reached, the sources kept are not evicted: the next ones are decoded again by each sensor until some are released.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(GroovySourceCache.DEFAULT_MAX_SIZE_MB))
+            .type(PropertyType.INTEGER)
+            .build(),
+        PropertyDefinition.builder(GroovyAstProvider.MAX_FILES_KEY)
+            .name("AST cache size")
+            .description(
+                "Maximum number of files whose Groovy syntax trees are kept in memory to be shared between GMetrics and CodeNarc. Beyond it, files are compiled again by each of them.")
+            .category(Groovy.NAME)
+            .subCategory("Base")
+            .defaultValue(String.valueOf(GroovyAstProvider.DEFAULT_MAX_FILES))
+            .type(PropertyType.INTEGER)
             .build());
   }
 }
@@ -0,0 +1,190 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scanner.ScannerSide;
+
+/**
+ * Compiles each Groovy file to an AST once and shares it between the sensors which need one
+ * (CodeNarc and GMetrics).
+ *
+ * <p>Consumers {@link #register(String) register} before asking for ASTs. The AST of a file at a
+ * given compiler phase is compiled once, and dropped once every registered consumer {@link
+ * #release(InputFile, String) released} the file or {@link #finish(String) finished}. Consumers
+ * should thus only register when they will consume ASTs. ASTs of different phases are compiled
+ * separately, as the later phases add generated nodes that rules of the earlier ones do not
+ * expect, and a file which fails to compile up to a phase is not compiled up to any later one.
+ *
+ * <p>The number of files kept is bounded by {@link #MAX_FILES_KEY}. Once the bound is reached,
+ * the files compiled next are handed out without being kept, and compiled again by the next
+ * consumer asking for them. Evicting the least recently used files would not help: consumers walk
+ * the files in the same order, one after the other, so each AST would be evicted before the next
+ * consumer gets to it, whereas the files kept first are all reused. It is safe to use from
+ * several threads.
+ */
+@ScannerSide
+public class GroovyAstProvider {
+
+  static final String MAX_FILES_KEY = "sonar.groovy.astCache.maxFiles";
+  static final int DEFAULT_MAX_FILES = 1000;
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroovyAstProvider.class);
+
+  /**
+   * Unit name of every file, as in CodeNarc: the name of the file would also be the name of the
+   * script class, which conflicts with a class of the same name declared by a script.
+   */
+  private static final String UNIT_NAME = "None";
+
+  private final GroovySourceCache sourceCache;
+  private final int maxFiles;
+  private final Set<String> consumers = new HashSet<>();
+  private final Map<InputFile, CompiledFile> files = new HashMap<>();
+  private int compilations = 0;
+  private int reuses = 0;
+
+  public GroovyAstProvider(Configuration settings, GroovySourceCache sourceCache) {
+    this.sourceCache = sourceCache;
+    this.maxFiles = Math.max(0, settings.getInt(MAX_FILES_KEY).orElse(DEFAULT_MAX_FILES));
+  }
+
+  /** Keeps the ASTs compiled from now on until the given consumer releases them. */
+  public synchronized void register(String consumer) {
+    consumers.add(consumer);
+  }
+
+  /**
+   * @return the AST of the file, compiled up to the given {@link Phases phase}, or {@code null} if
+   *     the file does not compile up to that phase
+   * @throws IOException if the file can not be read
+   */
+  @CheckForNull
+  public ModuleNode get(InputFile inputFile, int phase) throws IOException {
+    CompiledFile file;
+    synchronized (this) {
+      file = files.get(inputFile);
+      if (file == null) {
+        file = new CompiledFile(new HashSet<>(consumers));
+        if (!consumers.isEmpty() && files.size() < maxFiles) {
+          files.put(inputFile, file);
+        }
+      }
+    }
+    return file.get(inputFile, phase);
+  }
+
+  /** The given consumer does not need the AST of the file anymore. */
+  public synchronized void release(InputFile inputFile, String consumer) {
+    CompiledFile file = files.get(inputFile);
+    if (file != null && file.release(consumer)) {
+      files.remove(inputFile);
+    }
+  }
+
+  /** The given consumer does not need any AST anymore, until it registers again. */
+  public synchronized void finish(String consumer) {
+    consumers.remove(consumer);
+    files.values().removeIf(file -> file.release(consumer));
+    if (consumers.isEmpty()) {
+      LOG.debug("Groovy ASTs: {} compilation(s), {} reuse(s)", compilations, reuses);
+      files.clear();
+    }
+  }
+
+  synchronized int size() {
+    return files.size();
+  }
+
+  synchronized int compilations() {
+    return compilations;
+  }
+
+  private synchronized void count(boolean compiled) {
+    if (compiled) {
+      compilations++;
+    } else {
+      reuses++;
+    }
+  }
+
+  private class CompiledFile {
+    private final Set<String> pendingConsumers;
+    private final Map<Integer, Optional<ModuleNode>> astsByPhase = new HashMap<>();
+
+    private CompiledFile(Set<String> pendingConsumers) {
+      this.pendingConsumers = pendingConsumers;
+    }
+
+    /** @return whether no consumer needs this file anymore */
+    private boolean release(String consumer) {
+      pendingConsumers.remove(consumer);
+      return pendingConsumers.isEmpty();
+    }
+
+    @CheckForNull
+    private synchronized ModuleNode get(InputFile inputFile, int phase) throws IOException {
+      Optional<ModuleNode> ast = astsByPhase.get(phase);
+      if (ast == null) {
+        boolean compiles = !failsBefore(phase);
+        count(compiles);
+        ast = compiles ? Optional.ofNullable(compile(inputFile, phase)) : Optional.empty();
+        astsByPhase.put(phase, ast);
+      } else {
+        count(false);
+      }
+      return ast.orElse(null);
+    }
+
+    /** A file which does not compile up to a phase does not compile up to any later one. */
+    private boolean failsBefore(int phase) {
+      return astsByPhase.entrySet().stream()
+          .anyMatch(entry -> entry.getKey() < phase && !entry.getValue().isPresent());
+    }
+
+    @CheckForNull
+    private ModuleNode compile(InputFile inputFile, int phase) throws IOException {
+      SourceUnit sourceUnit = SourceUnit.create(UNIT_NAME, sourceCache.get(inputFile).toString());
+      CompilationUnit compilationUnit = new CompilationUnit();
+      compilationUnit.addSource(sourceUnit);
+      try {
+        compilationUnit.compile(phase);
+        return sourceUnit.getAST();
+      } catch (CompilationFailedException e) {
+        LOG.debug("Compilation of {} failed: {}", inputFile, e.getMessage());
+        return null;
+      }
+    }
+  }
+}
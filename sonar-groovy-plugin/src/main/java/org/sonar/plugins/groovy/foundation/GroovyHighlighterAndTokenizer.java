@@ -18,21 +18,18 @@
  */
 package org.sonar.plugins.groovy.foundation;
 
+import groovyjarjarantlr4.v4.runtime.CharStreams;
 import groovyjarjarantlr4.v4.runtime.RecognitionException;
 import groovyjarjarantlr4.v4.runtime.Token;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Optional;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
-import org.apache.commons.lang.StringUtils;
-import org.apache.groovy.parser.antlr4.GroovyLangLexer;
 import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.apache.groovy.parser.antlr4.GroovySyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.api.SonarProduct;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.sensor.SensorContext;
 import org.sonar.api.batch.sensor.cpd.NewCpdTokens;
@@ -43,6 +40,8 @@ public class GroovyHighlighterAndTokenizer {
 
   private static final Logger LOG = LoggerFactory.getLogger(GroovyHighlighterAndTokenizer.class);
 
+  private static final String LITERAL_IMAGE = "LITERAL";
+
   private static final int[] KEYWORDS = {
     GroovyLexer.AS,
     GroovyLexer.ASSERT,
@@ -113,151 +112,411 @@ public class GroovyHighlighterAndTokenizer {
 
   private static final int[] CONSTANTS = {};
 
-  private static final int[] COMMENTS = {GroovyLexer.SH_COMMENT};
+  /** Tokens replaced by {@link #LITERAL_IMAGE} when CPD tokens are reduced, besides GStrings. */
+  private static final int[] REDUCED_CPD_LITERALS = {
+    GroovyLexer.StringLiteral, GroovyLexer.IntegerLiteral, GroovyLexer.FloatingPointLiteral
+  };
+
+  /**
+   * Highlighting of each token type, indexed by token type: looked up once per token. When a type
+   * is in several mappings, the first one wins.
+   */
+  private static final TypeOfText[] TYPE_OF_TEXT = new TypeOfText[maxTokenType() + 1];
 
-  private static final List<TypeOfTextToTokenTypes> HIGHLIGHTING_MAPPING =
-      Arrays.asList(
-          new TypeOfTextToTokenTypes(TypeOfText.KEYWORD, KEYWORDS),
-          new TypeOfTextToTokenTypes(TypeOfText.STRING, STRINGS),
-          new TypeOfTextToTokenTypes(TypeOfText.CONSTANT, CONSTANTS),
-          new TypeOfTextToTokenTypes(TypeOfText.COMMENT, COMMENTS));
+  private static final boolean[] IS_REDUCED_CPD_LITERAL = new boolean[maxTokenType() + 1];
+
+  static {
+    map(KEYWORDS, TypeOfText.KEYWORD);
+    map(STRINGS, TypeOfText.STRING);
+    map(CONSTANTS, TypeOfText.CONSTANT);
+    for (int type : REDUCED_CPD_LITERALS) {
+      IS_REDUCED_CPD_LITERAL[type] = true;
+    }
+  }
 
   private final InputFile inputFile;
-  private final InputStream inputStream;
+  private final GroovySourceCache sourceCache;
+  private final boolean reduceCpdTokens;
+  private String source = "";
+  private int cursorIndex;
+  private int cursorCharIndex;
   private boolean isAnnotation;
+  private boolean isStatementStart;
+  private boolean isImport;
+  private int gStringDepth;
+  private int gStringStartLine;
+  private int gStringStartLineOffset;
+  private int cpdTokenCount;
+  private int savedCpdTokenCount;
+  @Nullable private NewHighlighting highlighting;
+  @Nullable private NewCpdTokens cpdTokens;
+  @Nullable private TypeOfText pendingType;
+  private int pendingStartLine;
+  private int pendingStartLineOffset;
+  private int pendingEndLine;
+  private int pendingEndLineOffset;
+  private int savedRanges;
+  private int mergedRanges;
+
+  public GroovyHighlighterAndTokenizer(InputFile inputFile, GroovySourceCache sourceCache) {
+    this(inputFile, sourceCache, false);
+  }
 
-  public GroovyHighlighterAndTokenizer(InputFile inputFile) throws IOException {
+  /**
+   * @param reduceCpdTokens whether to leave package and import statements out of CPD tokens, and
+   *     to replace numbers and whole GStrings, embedded expressions included, by a single literal
+   */
+  public GroovyHighlighterAndTokenizer(
+      InputFile inputFile, GroovySourceCache sourceCache, boolean reduceCpdTokens) {
     this.inputFile = inputFile;
-    this.inputStream = inputFile.inputStream();
+    this.sourceCache = sourceCache;
+    this.reduceCpdTokens = reduceCpdTokens;
+  }
+
+  /**
+   * Lexes the file once, saving highlighting and CPD tokens.
+   *
+   * @return {@code false} if the file could not be read
+   */
+  public boolean processFile(SensorContext context) {
+    return processFile(context, token -> {});
   }
 
-  public void processFile(SensorContext context) {
-    List<GroovyToken> tokens = new ArrayList<>();
+  /**
+   * Lexes the file once, saving highlighting and CPD tokens and handing every token to the given
+   * consumer, so that other per-token computations (e.g. base metrics) do not need their own
+   * lexing pass.
+   *
+   * @return {@code false} if the file could not be read
+   */
+  public boolean processFile(SensorContext context, Consumer<Token> tokenConsumer) {
+    boolean read = tokenize(context, tokenConsumer);
+    save();
+    return read;
+  }
+
+  /**
+   * Same as {@link #processFile(SensorContext, Consumer)}, but does not save anything: highlighting
+   * and CPD tokens are only stored by {@link #save()}. This allows lexing on a worker thread while
+   * saving from the sensor thread.
+   *
+   * <p>Tokens are added to the highlighting and CPD builders as soon as they are lexed. Token
+   * positions are computed on the source of the file, so that no intermediate token text is
+   * created, except for CPD images. Contiguous tokens highlighted the same way (e.g. the {@code @}
+   * and the name of an annotation) are merged into a single highlighting range.
+   *
+   * <p>In SonarLint, which analyzes the same files again after each edit, only the part of the file
+   * that an edit may have changed is lexed again, see {@link IncrementalGroovyLexer}.
+   *
+   * @return {@code false} if the file could not be read
+   */
+  public boolean tokenize(SensorContext context, Consumer<Token> tokenConsumer) {
     isAnnotation = false;
+    pendingType = null;
+    isStatementStart = true;
+    isImport = false;
+    gStringDepth = 0;
+    cursorIndex = 0;
+    cursorCharIndex = 0;
+    try {
+      source = sourceCache.get(inputFile).toString();
+    } catch (IOException e) {
+      LOG.error("Unable to read file: " + inputFile.filename(), e);
+      return false;
+    }
 
-    try (InputStreamReader streamReader = new InputStreamReader(inputStream)) {
-
-      GroovyLexer groovyLexer = new GroovyLangLexer(streamReader);
-
-      Token token = groovyLexer.nextToken();
-
-      int type = token.getType();
-      while (type != Token.EOF) {
-        String text = token.getText();
-        TypeOfText typeOfText = typeOfText(type, text).orElse(null);
-        int lines = StringUtils.countMatches(text, "\n");
-        String lastLine = lines == 0 ? text : text.substring(text.lastIndexOf("\n"));
-        if (StringUtils.isNotBlank(text)) {
-          GroovyToken gt = new GroovyToken(
-                          token.getLine(),
-                          token.getCharPositionInLine(),
-                          token.getLine() + lines,
-                          lines == 0 ? token.getCharPositionInLine() + text.length() : lastLine.length()-1,
-                          getImage(token, text),
-                          typeOfText);
-          tokens.add(gt);
-        }
-        token = groovyLexer.nextToken();
-        type = token.getType();
+    boolean isNotTest = inputFile.type() != InputFile.Type.TEST;
+    Consumer<Token> tokenHandler =
+        token -> {
+          tokenConsumer.accept(token);
+          // RollBackOne tokens overlap the GString part which follows them
+          if (token.getType() != GroovyLexer.RollBackOne) {
+            addToken(context, token, isNotTest);
+          }
+        };
+    try {
+      if (context.runtime().getProduct() == SonarProduct.SONARLINT) {
+        IncrementalGroovyLexer.lex(
+            inputFile.uri().toString(), source, inputFile.filename(), tokenHandler);
+      } else {
+        lex(source, tokenHandler);
       }
-    } catch (RecognitionException e) {
+    } catch (RecognitionException | GroovySyntaxError e) {
       LOG.error("Unexpected token when lexing file: " + inputFile.filename(), e);
+    } finally {
+      source = "";
+    }
+    return true;
+  }
+
+  /**
+   * Only hands the tokens of the file to the given consumer: neither highlighting nor CPD tokens
+   * are collected.
+   *
+   * @return {@code false} if the file could not be read
+   */
+  public boolean lexOnly(Consumer<Token> tokenConsumer) {
+    String text;
+    try {
+      text = sourceCache.get(inputFile).toString();
     } catch (IOException e) {
       LOG.error("Unable to read file: " + inputFile.filename(), e);
+      return false;
     }
+    try {
+      lex(text, tokenConsumer);
+    } catch (RecognitionException | GroovySyntaxError e) {
+      LOG.error("Unexpected token when lexing file: " + inputFile.filename(), e);
+    }
+    return true;
+  }
+
+  /** Stops early if the thread is interrupted, e.g. when the time budget of the file ran out. */
+  private void lex(String text, Consumer<Token> tokenHandler) {
+    GroovyLexer groovyLexer =
+        GroovyLexerPool.acquire(CharStreams.fromString(text, inputFile.filename()));
+    Thread thread = Thread.currentThread();
+    try {
+      for (Token token = groovyLexer.nextToken();
+          token.getType() != Token.EOF && !thread.isInterrupted();
+          token = groovyLexer.nextToken()) {
+        tokenHandler.accept(token);
+      }
+    } finally {
+      GroovyLexerPool.release(groovyLexer);
+    }
+  }
+
+  private void addToken(SensorContext context, Token token, boolean isNotTest) {
+    int start = charIndex(token.getStartIndex());
+    int end = charIndex(token.getStopIndex() + 1);
+    int type = token.getType();
+    boolean isImportToken = reduceCpdTokens && isPartOfImport(type, isComment(type, start, end));
+    TypeOfText typeOfText = typeOfText(type);
+    if (isBlank(start, end)) {
+      return;
+    }
+
+    int lines = 0;
+    int lastLineFeed = -1;
+    for (int i = start; i < end; i++) {
+      if (source.charAt(i) == '\n') {
+        lines++;
+        lastLineFeed = i;
+      }
+    }
+    int startLine = token.getLine();
+    int startLineOffset = token.getCharPositionInLine();
+    int endLine = startLine + lines;
+    int endLineOffset = lines == 0 ? startLineOffset + end - start : end - lastLineFeed - 1;
+
+    if (highlighting == null) {
+      highlighting = context.newHighlighting().onFile(inputFile);
+      cpdTokens = isNotTest ? context.newCpdTokens().onFile(inputFile) : null;
+    }
+    if (cpdTokens != null) {
+      cpdTokenCount++;
+      if (!reduceCpdTokens) {
+        addCpdToken(startLine, startLineOffset, endLine, endLineOffset, getImage(token));
+      } else if (!isImportToken) {
+        addReducedCpdToken(token, startLine, startLineOffset, endLine, endLineOffset, lines);
+      }
+    }
+    if (typeOfText != null) {
+      highlight(startLine, startLineOffset, endLine, endLineOffset, typeOfText);
+    }
+  }
+
+  private void addCpdToken(
+      int startLine, int startLineOffset, int endLine, int endLineOffset, String image) {
+    cpdTokens = cpdTokens.addToken(startLine, startLineOffset, endLine, endLineOffset, image);
+    savedCpdTokenCount++;
+  }
 
-    if (!tokens.isEmpty()) {
-      boolean isNotTest = inputFile.type() != InputFile.Type.TEST;
-      NewCpdTokens cpdTokens = isNotTest ? context.newCpdTokens().onFile(inputFile) : null;
-      NewHighlighting highlighting = context.newHighlighting().onFile(inputFile);
-      for (GroovyToken groovyToken : tokens) {
-        if (isNotTest) {
-          cpdTokens =
-              cpdTokens.addToken(
-                  groovyToken.startLine,
-                  groovyToken.startLineOffset,
-                  groovyToken.endLine,
-                  groovyToken.endLineOffset,
-                  groovyToken.image);
-        }
-        if (groovyToken.typeOfText != null) {
-          highlighting =
-              highlighting.highlight(
-                  groovyToken.startLine,
-                  groovyToken.startLineOffset,
-                  groovyToken.endLine,
-                  groovyToken.endLineOffset,
-                  groovyToken.typeOfText);
-        }
+  /** Adds a whole GString as a single literal once its last token is reached. */
+  private void addReducedCpdToken(
+      Token token, int startLine, int startLineOffset, int endLine, int endLineOffset, int lines) {
+    int type = token.getType();
+    if (type == GroovyLexer.GStringBegin) {
+      if (gStringDepth++ == 0) {
+        gStringStartLine = startLine;
+        gStringStartLineOffset = startLineOffset;
+      }
+    } else if (gStringDepth > 0) {
+      if (type == GroovyLexer.GStringEnd && --gStringDepth == 0) {
+        addCpdToken(
+            gStringStartLine, gStringStartLineOffset, endLine, endLineOffset, LITERAL_IMAGE);
       }
+    } else {
+      addCpdToken(
+          startLine,
+          startLineOffset,
+          endLine,
+          endLineOffset,
+          IS_REDUCED_CPD_LITERAL[type] ? LITERAL_IMAGE : singleLine(token.getText(), lines));
+    }
+  }
+
+  /**
+   * Whether the token is part of a package or import statement, which starts with its keyword and
+   * ends with a semicolon or a line terminator. Comments do not change whether a statement starts.
+   */
+  private boolean isPartOfImport(int type, boolean isComment) {
+    boolean isStatementEnd = type == GroovyLexer.SEMI || (type == GroovyLexer.NL && !isComment);
+    if (isImport) {
+      isImport = !isStatementEnd;
+      isStatementStart = isStatementEnd;
+      return true;
+    }
+    if (isStatementStart && (type == GroovyLexer.PACKAGE || type == GroovyLexer.IMPORT)) {
+      isImport = true;
+      return true;
+    }
+    if (!isComment) {
+      isStatementStart = isStatementEnd;
+    }
+    return false;
+  }
+
+  /** Extends the pending range if it ends where this one starts, otherwise saves it first. */
+  private void highlight(
+      int startLine, int startLineOffset, int endLine, int endLineOffset, TypeOfText typeOfText) {
+    if (typeOfText == pendingType
+        && startLine == pendingEndLine
+        && startLineOffset == pendingEndLineOffset) {
+      pendingEndLine = endLine;
+      pendingEndLineOffset = endLineOffset;
+      mergedRanges++;
+      return;
+    }
+    flushHighlighting();
+    pendingType = typeOfText;
+    pendingStartLine = startLine;
+    pendingStartLineOffset = startLineOffset;
+    pendingEndLine = endLine;
+    pendingEndLineOffset = endLineOffset;
+  }
+
+  private void flushHighlighting() {
+    if (pendingType != null && highlighting != null) {
+      highlighting =
+          highlighting.highlight(
+              pendingStartLine,
+              pendingStartLineOffset,
+              pendingEndLine,
+              pendingEndLineOffset,
+              pendingType);
+      savedRanges++;
+    }
+    pendingType = null;
+  }
+
+  /** Saves what has been collected by {@link #tokenize(SensorContext, Consumer)}. */
+  public void save() {
+    flushHighlighting();
+    if (highlighting != null) {
       highlighting.save();
-      if (isNotTest) {
-        cpdTokens.save();
+      highlighting = null;
+    }
+    if (cpdTokens != null) {
+      cpdTokens.save();
+      cpdTokens = null;
+      if (reduceCpdTokens) {
+        LOG.debug(
+            "CPD tokens of {}: {} saved instead of {}",
+            inputFile.filename(),
+            savedCpdTokenCount,
+            cpdTokenCount);
       }
     }
   }
 
-  private String getImage(Token token, String text) {
+  /** Number of highlighting ranges saved so far. */
+  public int savedRanges() {
+    return savedRanges;
+  }
+
+  /** Number of tokens whose highlighting was merged into the range of the previous token. */
+  public int mergedRanges() {
+    return mergedRanges;
+  }
+
+  /** Number of CPD tokens of the file, before any reduction. */
+  public int cpdTokenCount() {
+    return cpdTokenCount;
+  }
+
+  /** Number of CPD tokens saved for the file. */
+  public int savedCpdTokenCount() {
+    return savedCpdTokenCount;
+  }
+
+  private static String getImage(Token token) {
     if (token.getType() == GroovyLexer.StringLiteral) {
-      return "LITERAL";
+      return LITERAL_IMAGE;
     }
-    return text;
+    return token.getText();
   }
 
-  private Optional<TypeOfText> typeOfText(int type, String text) {
-    TypeOfText result = null;
-    for (TypeOfTextToTokenTypes mapping : HIGHLIGHTING_MAPPING) {
-      if (Arrays.stream(mapping.tokenTypes).anyMatch(tokenType -> tokenType == type)) {
-        result = mapping.typeOfText;
-        break;
-      }
+  /** In reduced CPD tokens, a CPD line is identified by the line the token starts on. */
+  private static String singleLine(String text, int lines) {
+    return lines == 0 ? text : text.replace("\r", "").replace("\n", "");
+  }
+
+  /**
+   * Index in the source of the given index of the lexer, which counts code points. Tokens come in
+   * order, so the source is walked once from one token to the next.
+   */
+  private int charIndex(int index) {
+    if (index < cursorIndex) {
+      cursorIndex = 0;
+      cursorCharIndex = 0;
     }
+    cursorCharIndex = source.offsetByCodePoints(cursorCharIndex, index - cursorIndex);
+    cursorIndex = index;
+    return cursorCharIndex;
+  }
 
-    if (result == TypeOfText.COMMENT && text.startsWith("/**")) {
-      result = TypeOfText.STRUCTURED_COMMENT;
-    } else if (result == null && (type == GroovyLexer.AT || isAnnotation)) {
+  @CheckForNull
+  private TypeOfText typeOfText(int type) {
+    TypeOfText result = type >= 0 && type < TYPE_OF_TEXT.length ? TYPE_OF_TEXT[type] : null;
+    if (result == null && (type == GroovyLexer.AT || isAnnotation)) {
       isAnnotation = isPartOfAnnotation(type);
       result = isAnnotation ? TypeOfText.ANNOTATION : null;
     }
+    return result;
+  }
 
-    return Optional.ofNullable(result);
+  /** Same as {@link GroovyTokens#isComment(Token)}, without creating the token text. */
+  private boolean isComment(int type, int start, int end) {
+    return type == GroovyLexer.NL
+        && end - start > 1
+        && source.charAt(start) == '/'
+        && (source.charAt(start + 1) == '/' || source.charAt(start + 1) == '*');
+  }
+
+  private boolean isBlank(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(source.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private static boolean isPartOfAnnotation(int type) {
     return type == GroovyLexer.AT || type == GroovyLexer.Identifier || type == GroovyLexer.DOT;
   }
 
-  private static class GroovyToken {
-    final int startLine;
-    final int startLineOffset;
-    final int endLine;
-    final int endLineOffset;
-    final String image;
-    @Nullable final TypeOfText typeOfText;
-
-    public GroovyToken(
-        int startLine,
-        int startLineOffset,
-        int endLine,
-        int endLineOffset,
-        String image,
-        @Nullable TypeOfText typeOfText) {
-      this.startLine = startLine;
-      this.startLineOffset = startLineOffset;
-      this.endLine = endLine;
-      this.endLineOffset = endLineOffset;
-      this.image = image;
-      this.typeOfText = typeOfText;
-    }
+  private static int maxTokenType() {
+    return GroovyLexer.VOCABULARY.getMaxTokenType();
   }
 
-  private static class TypeOfTextToTokenTypes {
-    final int[] tokenTypes;
-    final TypeOfText typeOfText;
-
-    public TypeOfTextToTokenTypes(TypeOfText typeOfText, int[] tokenTypes) {
-      this.tokenTypes = tokenTypes;
-      this.typeOfText = typeOfText;
+  private static void map(int[] tokenTypes, TypeOfText typeOfText) {
+    for (int type : tokenTypes) {
+      if (TYPE_OF_TEXT[type] == null) {
+        TYPE_OF_TEXT[type] = typeOfText;
+      }
     }
   }
 }
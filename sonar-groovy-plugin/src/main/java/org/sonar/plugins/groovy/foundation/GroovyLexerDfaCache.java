@@ -0,0 +1,74 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import groovyjarjarantlr4.v4.runtime.atn.ATN;
+import groovyjarjarantlr4.v4.runtime.dfa.DFA;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+
+/**
+ * The DFA built by ANTLR while lexing is shared by all Groovy lexers of the JVM and is never
+ * cleared by Groovy itself (unless {@code groovy.antlr4.clear.lexer.dfa.cache} is set). On large
+ * and varied code bases, and in long-lived JVMs, it keeps growing. This class measures it and
+ * clears it once it goes above a given number of states.
+ *
+ * <p>Clearing must not happen while files are being lexed or parsed: it is meant to be done between
+ * batches of files, and not while tasks abandoned by a {@link
+ * org.sonar.plugins.groovy.utils.FileWatchdog} may still be running.
+ */
+public final class GroovyLexerDfaCache {
+
+  private static final AtomicInteger CLEARS = new AtomicInteger();
+
+  private GroovyLexerDfaCache() {}
+
+  /** Number of DFA states currently cached for the Groovy lexer. */
+  public static int size() {
+    ATN atn = GroovyLangLexer._ATN;
+    return size(atn.modeToDFA) + size(atn.decisionToDFA);
+  }
+
+  /**
+   * Clears the cache if it holds more than the given number of states.
+   *
+   * @return {@code true} if the cache has been cleared
+   */
+  public static boolean clearIfLargerThan(int maxStates) {
+    if (size() <= maxStates) {
+      return false;
+    }
+    GroovyLangLexer._ATN.clearDFA();
+    CLEARS.incrementAndGet();
+    return true;
+  }
+
+  /** Number of times the cache has been cleared since the JVM started. */
+  public static int clears() {
+    return CLEARS.get();
+  }
+
+  private static int size(DFA[] dfas) {
+    int size = 0;
+    for (DFA dfa : dfas) {
+      size += dfa.states.size();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import groovyjarjarantlr4.v4.runtime.CharStream;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import javax.annotation.CheckForNull;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link GroovyLexer}s which are done with their file and resets one of them onto each
+ * new input, instead of creating a lexer per file. On projects made of many small files (specs,
+ * build scripts), creating the lexer and its ATN simulator is a noticeable part of the lexing time.
+ *
+ * <p>Lexers are pooled process-wide rather than per thread: the worker threads lexing files only
+ * live for a batch of files, and the threads of the file watchdog come and go, so lexers kept by
+ * threads would hardly be reused. At most one idle lexer per processor is kept.
+ *
+ * <p>{@link groovyjarjarantlr4.v4.runtime.Lexer#setInputStream} only resets the ANTLR state: the
+ * Groovy lexer also keeps the index of the last token (used to detect shebang lines), the type of
+ * the last token and the stack of open parentheses, which are reset by reflection. If that is not
+ * possible with the Groovy version at hand, a new lexer is created for each input.
+ */
+public final class GroovyLexerPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GroovyLexerPool.class);
+
+  @CheckForNull static final Field TOKEN_INDEX = lexerField("tokenIndex");
+  @CheckForNull static final Field LAST_TOKEN_TYPE = lexerField("lastTokenType");
+  @CheckForNull static final Field INVALID_DIGIT_COUNT = lexerField("invalidDigitCount");
+  @CheckForNull static final Field PAREN_STACK = lexerField("parenStack");
+
+  static final boolean REUSABLE =
+      TOKEN_INDEX != null
+          && LAST_TOKEN_TYPE != null
+          && INVALID_DIGIT_COUNT != null
+          && PAREN_STACK != null;
+
+  private static final int MAX_IDLE_LEXERS = Runtime.getRuntime().availableProcessors();
+
+  /** Released lexers, the last released first. */
+  private static final Deque<PooledLexer> IDLE_LEXERS = new ArrayDeque<>();
+
+  private GroovyLexerPool() {}
+
+  /**
+   * Returns a lexer reading the given input, which must be handed back with {@link
+   * #release(GroovyLexer)} once lexing is done.
+   */
+  public static GroovyLexer acquire(CharStream input) {
+    PooledLexer lexer;
+    synchronized (IDLE_LEXERS) {
+      lexer = IDLE_LEXERS.pollFirst();
+    }
+    if (lexer == null) {
+      return new PooledLexer(input);
+    }
+    lexer.reset(input);
+    return lexer;
+  }
+
+  /**
+   * Detaches the lexer from its input, so that the input can be garbage collected, and keeps it for
+   * the next file. The lexer must not be used anymore.
+   */
+  public static void release(GroovyLexer lexer) {
+    if (lexer instanceof PooledLexer) {
+      lexer.setInputStream(null);
+      if (REUSABLE) {
+        synchronized (IDLE_LEXERS) {
+          if (IDLE_LEXERS.size() < MAX_IDLE_LEXERS) {
+            IDLE_LEXERS.addFirst((PooledLexer) lexer);
+          }
+        }
+      }
+    }
+  }
+
+  @CheckForNull
+  private static Field lexerField(String name) {
+    return accessibleField(GroovyLexer.class, name);
+  }
+
+  @CheckForNull
+  static Field accessibleField(Class<?> type, String name) {
+    try {
+      Field field = type.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.debug("Groovy lexer field '{}' is not accessible", name, e);
+      return null;
+    }
+  }
+
+  private static class PooledLexer extends GroovyLangLexer {
+    PooledLexer(CharStream input) {
+      super(input);
+    }
+
+    void reset(CharStream input) {
+      setInputStream(input);
+      try {
+        TOKEN_INDEX.setLong(this, 0L);
+        LAST_TOKEN_TYPE.setInt(this, 0);
+        INVALID_DIGIT_COUNT.setInt(this, 0);
+        ((Deque<?>) PAREN_STACK.get(this)).clear();
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException("Unable to reset Groovy lexer", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import groovyjarjarantlr4.v4.runtime.misc.IntegerStack;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+import javax.annotation.CheckForNull;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+
+/**
+ * Snapshot of the state of a {@link GroovyLexer} between two tokens: the ANTLR mode stack (e.g.
+ * inside a GString or a triple-quoted string) and the fields of the Groovy lexer described in
+ * {@link GroovyLexerPool}. Restoring a snapshot onto a lexer positioned at the same character lets
+ * it go on as if it had lexed everything before.
+ */
+final class GroovyLexerState {
+
+  private static final String PAREN_CLASS = GroovyLexer.class.getName() + "$Paren";
+
+  @CheckForNull private static final Field PAREN_TEXT = parenField("text");
+  @CheckForNull private static final Field PAREN_LAST_TOKEN_TYPE = parenField("lastTokenType");
+
+  /** Whether the state of lexers can be captured with the Groovy version at hand. */
+  static final boolean SUPPORTED =
+      GroovyLexerPool.REUSABLE && PAREN_TEXT != null && PAREN_LAST_TOKEN_TYPE != null;
+
+  private final int mode;
+  private final int[] modeStack;
+  private final long tokenIndex;
+  private final int lastTokenType;
+  private final int invalidDigitCount;
+  private final Object[] parens;
+
+  private GroovyLexerState(
+      int mode,
+      int[] modeStack,
+      long tokenIndex,
+      int lastTokenType,
+      int invalidDigitCount,
+      Object[] parens) {
+    this.mode = mode;
+    this.modeStack = modeStack;
+    this.tokenIndex = tokenIndex;
+    this.lastTokenType = lastTokenType;
+    this.invalidDigitCount = invalidDigitCount;
+    this.parens = parens;
+  }
+
+  /** Must only be called when {@link #SUPPORTED}. */
+  static GroovyLexerState capture(GroovyLexer lexer) {
+    try {
+      return new GroovyLexerState(
+          lexer._mode,
+          lexer._modeStack.toArray(),
+          GroovyLexerPool.TOKEN_INDEX.getLong(lexer),
+          GroovyLexerPool.LAST_TOKEN_TYPE.getInt(lexer),
+          GroovyLexerPool.INVALID_DIGIT_COUNT.getInt(lexer),
+          ((Deque<?>) GroovyLexerPool.PAREN_STACK.get(lexer)).toArray());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to capture the Groovy lexer state", e);
+    }
+  }
+
+  /**
+   * Restores this state onto a lexer whose input has just been set, see {@link
+   * groovyjarjarantlr4.v4.runtime.Lexer#setInputStream}. Positioning the input is up to the caller.
+   */
+  @SuppressWarnings("unchecked")
+  void restore(GroovyLexer lexer) {
+    lexer._mode = mode;
+    IntegerStack stack = lexer._modeStack;
+    stack.clear();
+    for (int stackedMode : modeStack) {
+      stack.push(stackedMode);
+    }
+    try {
+      GroovyLexerPool.TOKEN_INDEX.setLong(lexer, tokenIndex);
+      GroovyLexerPool.LAST_TOKEN_TYPE.setInt(lexer, lastTokenType);
+      GroovyLexerPool.INVALID_DIGIT_COUNT.setInt(lexer, invalidDigitCount);
+      Deque<Object> parenStack = (Deque<Object>) GroovyLexerPool.PAREN_STACK.get(lexer);
+      parenStack.clear();
+      parenStack.addAll(Arrays.asList(parens));
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to restore the Groovy lexer state", e);
+    }
+  }
+
+  /**
+   * Tells whether a lexer in this state lexes the same tokens as a lexer in the other one, from the
+   * same input. Open parentheses are compared on what the lexer uses them for, not on their
+   * position, which only appears in error messages.
+   */
+  boolean lexesLike(GroovyLexerState other) {
+    if (mode != other.mode
+        || !Arrays.equals(modeStack, other.modeStack)
+        || (tokenIndex == 0) != (other.tokenIndex == 0)
+        || lastTokenType != other.lastTokenType
+        || invalidDigitCount != other.invalidDigitCount
+        || parens.length != other.parens.length) {
+      return false;
+    }
+    try {
+      for (int i = 0; i < parens.length; i++) {
+        if (!Objects.equals(PAREN_TEXT.get(parens[i]), PAREN_TEXT.get(other.parens[i]))
+            || PAREN_LAST_TOKEN_TYPE.getInt(parens[i])
+                != PAREN_LAST_TOKEN_TYPE.getInt(other.parens[i])) {
+          return false;
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Unable to compare Groovy lexer states", e);
+    }
+    return true;
+  }
+
+  @CheckForNull
+  private static Field parenField(String name) {
+    try {
+      return GroovyLexerPool.accessibleField(Class.forName(PAREN_CLASS), name);
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decoded contents of a Groovy file. The offset of the start of each line is computed once, the
+ * first time lines are asked for.
+ *
+ * <p>Lines are 1-based, as in {@link org.sonar.api.batch.fs.InputFile}. Line terminators are
+ * {@code \n}, {@code \r\n} and {@code \r}.
+ */
+public final class GroovySource implements CharSequence {
+
+  private final String text;
+  @Nullable private volatile int[] lineOffsets;
+
+  public GroovySource(String text) {
+    this.text = text;
+  }
+
+  public int lines() {
+    return lineOffsets().length;
+  }
+
+  /** Offset of the first character of the given line. */
+  public int lineStart(int line) {
+    int[] offsets = checkLine(line);
+    return offsets[line - 1];
+  }
+
+  /** Offset right after the last character of the given line, line terminator excluded. */
+  public int lineEnd(int line) {
+    int[] offsets = checkLine(line);
+    int end = line == offsets.length ? text.length() : offsets[line];
+    while (end > offsets[line - 1] && isLineTerminator(text.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+
+  public CharSequence line(int line) {
+    return text.subSequence(lineStart(line), lineEnd(line));
+  }
+
+  @Override
+  public int length() {
+    return text.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return text.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return text.subSequence(start, end);
+  }
+
+  /** Returns the decoded text itself, without copying it. */
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  private int[] lineOffsets() {
+    int[] offsets = lineOffsets;
+    if (offsets == null) {
+      // Computing them twice from racing threads is harmless
+      offsets = computeLineOffsets(text);
+      lineOffsets = offsets;
+    }
+    return offsets;
+  }
+
+  /** @return the line offsets */
+  private int[] checkLine(int line) {
+    int[] offsets = lineOffsets();
+    if (line < 1 || line > offsets.length) {
+      throw new IllegalArgumentException(
+          "Line " + line + " is out of range [1, " + offsets.length + "]");
+    }
+    return offsets;
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r';
+  }
+
+  /** Counts the lines first, so that the offsets are filled in an array of the right size. */
+  private static int[] computeLineOffsets(String text) {
+    int[] offsets = new int[1 + forEachLineTerminator(text, null)];
+    forEachLineTerminator(text, offsets);
+    return offsets;
+  }
+
+  /**
+   * Puts the offset of the line following each line terminator in {@code offsets}, if given.
+   *
+   * @return the number of line terminators
+   */
+  private static int forEachLineTerminator(String text, @Nullable int[] offsets) {
+    int count = 0;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+        i++;
+      }
+      if (isLineTerminator(c)) {
+        count++;
+        if (offsets != null) {
+          offsets[count] = i + 1;
+        }
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.scanner.ScannerSide;
+
+/**
+ * Decodes each Groovy file once (with the charset of the file) and shares the result between the
+ * sensors of the plugin.
+ *
+ * <p>Consumers {@link #register(String) register} before asking for sources. The source of a file
+ * is kept until every consumer registered when it was decoded {@link #release(InputFile, String)
+ * released} the file or {@link #finish(String) finished}, and dropped right away then, so every
+ * source kept is still needed by a consumer.
+ *
+ * <p>The total number of characters kept is bounded by {@link #MAX_SIZE_KEY}. Once the bound is
+ * reached, the sources decoded next are handed out without being kept, and decoded again by the
+ * next consumer asking for them, until released sources make room. Evicting the least recently
+ * used sources would not help: consumers walk the files in the same order, one after the other,
+ * so each source would be evicted before the next consumer gets to it, whereas the sources kept
+ * first are all reused. It is safe to use from several threads.
+ */
+@ScannerSide
+public class GroovySourceCache {
+
+  static final String MAX_SIZE_KEY = "sonar.groovy.sourceCache.maxSize";
+  static final int DEFAULT_MAX_SIZE_MB = 64;
+
+  private final long maxChars;
+  private final Set<String> consumers = new HashSet<>();
+  private final Map<InputFile, CachedSource> sources = new HashMap<>();
+  private long cachedChars = 0;
+
+  public GroovySourceCache(Configuration settings) {
+    int maxSizeMb = settings.getInt(MAX_SIZE_KEY).orElse(DEFAULT_MAX_SIZE_MB);
+    // Characters are 2 bytes wide
+    this.maxChars = Math.max(0, maxSizeMb) * 1024L * 1024L / 2;
+  }
+
+  /** Keeps the sources decoded from now on until the given consumer releases them. */
+  public synchronized void register(String consumer) {
+    consumers.add(consumer);
+  }
+
+  /**
+   * @throws IOException if the file can not be read
+   */
+  public GroovySource get(InputFile inputFile) throws IOException {
+    synchronized (this) {
+      CachedSource cached = sources.get(inputFile);
+      if (cached != null) {
+        return cached.source;
+      }
+    }
+    // Decoding happens outside the lock, so that threads do not wait for each other
+    return put(inputFile, new GroovySource(inputFile.contents()));
+  }
+
+  /** The given consumer does not need the source of the file anymore. */
+  public synchronized void release(InputFile inputFile, String consumer) {
+    CachedSource cached = sources.get(inputFile);
+    if (cached != null && cached.release(consumer)) {
+      sources.remove(inputFile);
+      cachedChars -= cached.source.length();
+    }
+  }
+
+  /** The given consumer does not need any source anymore, until it registers again. */
+  public synchronized void finish(String consumer) {
+    consumers.remove(consumer);
+    Iterator<CachedSource> iterator = sources.values().iterator();
+    while (iterator.hasNext()) {
+      CachedSource cached = iterator.next();
+      if (consumers.isEmpty() || cached.release(consumer)) {
+        iterator.remove();
+        cachedChars -= cached.source.length();
+      }
+    }
+  }
+
+  synchronized int size() {
+    return sources.size();
+  }
+
+  private synchronized GroovySource put(InputFile inputFile, GroovySource source) {
+    CachedSource cached = sources.get(inputFile);
+    if (cached != null) {
+      // Decoded by another thread in the meantime
+      return cached.source;
+    }
+    if (!consumers.isEmpty() && cachedChars + source.length() <= maxChars) {
+      sources.put(inputFile, new CachedSource(source, new HashSet<>(consumers)));
+      cachedChars += source.length();
+    }
+    return source;
+  }
+
+  private static class CachedSource {
+    private final GroovySource source;
+    private final Set<String> pendingConsumers;
+
+    private CachedSource(GroovySource source, Set<String> pendingConsumers) {
+      this.source = source;
+      this.pendingConsumers = pendingConsumers;
+    }
+
+    /** @return whether no consumer needs this source anymore */
+    private boolean release(String consumer) {
+      pendingConsumers.remove(consumer);
+      return pendingConsumers.isEmpty();
+    }
+  }
+}
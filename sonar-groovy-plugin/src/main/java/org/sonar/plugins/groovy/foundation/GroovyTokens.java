@@ -0,0 +1,52 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import groovyjarjarantlr4.v4.runtime.Token;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+
+/**
+ * Classification of the tokens emitted by the Groovy (parrot) lexer, shared between metrics and
+ * highlighting.
+ */
+public final class GroovyTokens {
+
+  private GroovyTokens() {}
+
+  /**
+   * The parrot lexer does not have dedicated comment tokens: single- and multi-line comments are
+   * emitted as {@link GroovyLexer#NL} tokens carrying the comment text.
+   */
+  public static boolean isComment(Token token) {
+    if (token.getType() != GroovyLexer.NL) {
+      return false;
+    }
+    String text = token.getText();
+    return text.startsWith("//") || text.startsWith("/*");
+  }
+
+  public static boolean isStructuredComment(Token token) {
+    return isComment(token) && token.getText().startsWith("/**");
+  }
+
+  /** Line terminators are {@link GroovyLexer#NL} tokens which are not comments. */
+  public static boolean isLineTerminator(Token token) {
+    return token.getType() == GroovyLexer.NL && !isComment(token);
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import groovyjarjarantlr4.v4.runtime.CharStream;
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.CodePointCharStream;
+import groovyjarjarantlr4.v4.runtime.CommonToken;
+import groovyjarjarantlr4.v4.runtime.Token;
+import groovyjarjarantlr4.v4.runtime.TokenSource;
+import groovyjarjarantlr4.v4.runtime.misc.Interval;
+import groovyjarjarantlr4.v4.runtime.misc.Tuple;
+import groovyjarjarantlr4.v4.runtime.misc.Tuple2;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lexes files which are analyzed again and again while being edited (SonarLint), re-lexing only
+ * what an edit may have changed.
+ *
+ * <p>The tokens of the last version of each file are kept, together with checkpoints taken at the
+ * line boundaries between two tokens: the {@link GroovyLexerState state of the lexer} (e.g. inside
+ * a GString or a triple-quoted string) and how far it has read ahead. After an edit, lexing resumes
+ * from the last checkpoint whose read-ahead stayed before the first changed character, and stops as
+ * soon as it reaches, after the last changed character, a checkpoint where the lexer is in the same
+ * state as it was at the matching checkpoint of the previous version: from there on, the previous
+ * tokens are reused, shifted by the length of the edit.
+ */
+final class IncrementalGroovyLexer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IncrementalGroovyLexer.class);
+
+  /** Number of files whose tokens are kept: the ones open in the IDE, usually. */
+  private static final int MAX_FILES = 16;
+
+  private static final Map<String, LexedSource> LEXED_SOURCES =
+      new LinkedHashMap<String, LexedSource>(MAX_FILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LexedSource> eldest) {
+          return size() > MAX_FILES;
+        }
+      };
+
+  private IncrementalGroovyLexer() {}
+
+  /**
+   * Hands the tokens of the given source to the consumer, re-lexing only what changed since the
+   * last call for the same key. If lexing fails, the exception is propagated and the next call
+   * lexes the whole source.
+   *
+   * @return the number of tokens actually lexed, the others being reused
+   */
+  static int lex(String key, String source, String sourceName, Consumer<Token> tokenConsumer) {
+    LexedSource previous;
+    synchronized (LEXED_SOURCES) {
+      previous = LEXED_SOURCES.remove(key);
+    }
+    CodePointCharStream text = CharStreams.fromString(source, sourceName);
+    ReadAheadTrackingStream input = new ReadAheadTrackingStream(text);
+    LexedSource lexed = new LexedSource(source, text.size(), Tuple.create(null, text));
+    GroovyLexer lexer = GroovyLexerPool.acquire(input);
+    try {
+      int lexedTokens = new Run(previous, lexed, lexer, input, tokenConsumer).lex();
+      synchronized (LEXED_SOURCES) {
+        LEXED_SOURCES.put(key, lexed);
+      }
+      return lexedTokens;
+    } finally {
+      GroovyLexerPool.release(lexer);
+    }
+  }
+
+  /** Forgets all files, e.g. when the analysis is over. */
+  static void clear() {
+    synchronized (LEXED_SOURCES) {
+      LEXED_SOURCES.clear();
+    }
+  }
+
+  private static final class Run {
+    @Nullable private final LexedSource previous;
+    private final LexedSource lexed;
+    private final GroovyLexer lexer;
+    private final ReadAheadTrackingStream input;
+    private final Consumer<Token> tokenConsumer;
+
+    /** End of the edited characters in the current version. */
+    private int editEnd;
+
+    /** Difference of length between the current version and the previous one. */
+    private int editShift;
+
+    private Run(
+        @Nullable LexedSource previous,
+        LexedSource lexed,
+        GroovyLexer lexer,
+        ReadAheadTrackingStream input,
+        Consumer<Token> tokenConsumer) {
+      this.previous = previous;
+      this.lexed = lexed;
+      this.lexer = lexer;
+      this.input = input;
+      this.tokenConsumer = tokenConsumer;
+    }
+
+    private int lex() {
+      Checkpoint resumeFrom = previous == null ? null : findEdit(previous);
+      if (resumeFrom != null) {
+        reuseUpTo(previous, resumeFrom);
+        resumeFrom.state.restore(lexer);
+        input.resume(resumeFrom.offset, resumeFrom.readAhead);
+        lexer.getInterpreter().setLine(resumeFrom.line);
+        lexer.getInterpreter().setCharPositionInLine(0);
+      }
+      int lexedTokens = 0;
+      for (Token token = nextToken(); token != null; token = nextToken()) {
+        tokenConsumer.accept(token);
+        lexed.tokens.add(token);
+        lexedTokens++;
+      }
+      LOG.debug(
+          "Lexed {} token(s) of {}, reused {}",
+          lexedTokens,
+          input.getSourceName(),
+          lexed.tokens.size() - lexedTokens);
+      return lexedTokens;
+    }
+
+    /** Returns {@code null} at the end of the input, or once the previous tokens are reused. */
+    @CheckForNull
+    private Token nextToken() {
+      if (GroovyLexerState.SUPPORTED && isLineStart() && checkpoint()) {
+        return null;
+      }
+      Token token = lexer.nextToken();
+      return token.getType() == Token.EOF ? null : token;
+    }
+
+    /**
+     * Compares the previous version with the current one, and returns the checkpoint from which
+     * lexing resumes, if any. The sources are compared by chars, but offsets of the lexer count
+     * code points: an edit never starts or ends inside a surrogate pair.
+     */
+    @CheckForNull
+    private Checkpoint findEdit(LexedSource previous) {
+      String before = previous.text;
+      String after = lexed.text;
+      int prefix = 0;
+      int maxPrefix = Math.min(before.length(), after.length());
+      while (prefix < maxPrefix && before.charAt(prefix) == after.charAt(prefix)) {
+        prefix++;
+      }
+      if (prefix > 0 && Character.isHighSurrogate(after.charAt(prefix - 1))) {
+        prefix--;
+      }
+      int suffix = 0;
+      int maxSuffix = maxPrefix - prefix;
+      while (suffix < maxSuffix
+          && before.charAt(before.length() - 1 - suffix)
+              == after.charAt(after.length() - 1 - suffix)) {
+        suffix++;
+      }
+      if (suffix > 0 && Character.isLowSurrogate(after.charAt(after.length() - suffix))) {
+        suffix--;
+      }
+      editEnd =
+          lexed.length - Character.codePointCount(after, after.length() - suffix, after.length());
+      editShift = lexed.length - previous.length;
+      int editStart = Character.codePointCount(after, 0, prefix);
+      return GroovyLexerState.SUPPORTED ? previous.lastCheckpointReadingBefore(editStart) : null;
+    }
+
+    /**
+     * Records a checkpoint at the current position, and tells whether lexing converged with the
+     * previous version there, in which case the remaining tokens have been reused.
+     */
+    private boolean checkpoint() {
+      int offset = input.index();
+      Checkpoint checkpoint =
+          new Checkpoint(
+              offset,
+              lexer.getInterpreter().getLine(),
+              lexed.tokens.size(),
+              input.readAhead(),
+              GroovyLexerState.capture(lexer));
+      if (previous != null && offset >= editEnd && offset > 0) {
+        Checkpoint matching = previous.checkpointAt(offset - editShift);
+        if (matching != null && checkpoint.state.lexesLike(matching.state)) {
+          reuseFrom(previous, matching, editShift, checkpoint.line - matching.line);
+          return true;
+        }
+      }
+      lexed.checkpoints.add(checkpoint);
+      return false;
+    }
+
+    /** Hands over the previous tokens and checkpoints before the given checkpoint. */
+    private void reuseUpTo(LexedSource previous, Checkpoint upTo) {
+      for (Checkpoint checkpoint : previous.checkpoints) {
+        if (checkpoint.offset < upTo.offset) {
+          lexed.checkpoints.add(checkpoint);
+        }
+      }
+      reuseTokens(previous, 0, upTo.tokenIndex, 0, 0);
+    }
+
+    /**
+     * Hands over the previous tokens and checkpoints from the given checkpoint on, shifted. The
+     * tokens lexed since resuming may have read further ahead than the previous ones did.
+     */
+    private void reuseFrom(LexedSource previous, Checkpoint from, int offsetShift, int lineShift) {
+      int tokenShift = lexed.tokens.size() - from.tokenIndex;
+      for (Checkpoint checkpoint : previous.checkpoints) {
+        if (checkpoint.offset >= from.offset) {
+          lexed.checkpoints.add(
+              checkpoint.shift(offsetShift, lineShift, tokenShift, input.readAhead()));
+        }
+      }
+      reuseTokens(previous, from.tokenIndex, previous.tokens.size(), offsetShift, lineShift);
+    }
+
+    private void reuseTokens(
+        LexedSource previous, int from, int to, int offsetShift, int lineShift) {
+      for (int i = from; i < to; i++) {
+        Token token = new ReusedToken(previous.tokens.get(i), lexed.source, offsetShift, lineShift);
+        tokenConsumer.accept(token);
+        lexed.tokens.add(token);
+      }
+    }
+
+    /** Whether the input is at a line start. Like ANTLR, only counts line feeds. */
+    private boolean isLineStart() {
+      int offset = input.index();
+      return offset == 0 || (offset < lexed.length && input.LA(-1) == '\n');
+    }
+  }
+
+  /** Tokens and checkpoints of one version of a file. */
+  private static final class LexedSource {
+    private final String text;
+    /** Number of code points of the text, which offsets count. */
+    private final int length;
+    private final Tuple2<? extends TokenSource, CharStream> source;
+    private final List<Token> tokens = new ArrayList<>();
+    /** Ordered by offset, and so by read-ahead. */
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    private LexedSource(
+        String text, int length, Tuple2<? extends TokenSource, CharStream> source) {
+      this.text = text;
+      this.length = length;
+      this.source = source;
+    }
+
+    /** Returns the last checkpoint whose tokens do not depend on characters from {@code offset}. */
+    @CheckForNull
+    private Checkpoint lastCheckpointReadingBefore(int offset) {
+      int low = 0;
+      int high = checkpoints.size() - 1;
+      Checkpoint found = null;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        Checkpoint checkpoint = checkpoints.get(middle);
+        if (checkpoint.readAhead < offset) {
+          found = checkpoint;
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return found;
+    }
+
+    @CheckForNull
+    private Checkpoint checkpointAt(int offset) {
+      int low = 0;
+      int high = checkpoints.size() - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        Checkpoint checkpoint = checkpoints.get(middle);
+        if (checkpoint.offset < offset) {
+          low = middle + 1;
+        } else if (checkpoint.offset > offset) {
+          high = middle - 1;
+        } else {
+          return checkpoint;
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Lexer state at the start of a line, before the token {@link #tokenIndex}. */
+  private static final class Checkpoint {
+    private final int offset;
+    private final int line;
+    private final int tokenIndex;
+    /** Greatest offset read by the lexer to lex the tokens before this checkpoint, or -1. */
+    private final int readAhead;
+
+    private final GroovyLexerState state;
+
+    private Checkpoint(
+        int offset, int line, int tokenIndex, int readAhead, GroovyLexerState state) {
+      this.offset = offset;
+      this.line = line;
+      this.tokenIndex = tokenIndex;
+      this.readAhead = readAhead;
+      this.state = state;
+    }
+
+    private Checkpoint shift(int offsetShift, int lineShift, int tokenShift, int minReadAhead) {
+      return new Checkpoint(
+          offset + offsetShift,
+          line + lineShift,
+          tokenIndex + tokenShift,
+          Math.max(readAhead + offsetShift, minReadAhead),
+          state);
+    }
+  }
+
+  /** Token of a previous version, moved to where it is in the current one. */
+  private static final class ReusedToken extends CommonToken {
+    private ReusedToken(
+        Token token,
+        Tuple2<? extends TokenSource, CharStream> source,
+        int offsetShift,
+        int lineShift) {
+      super(token);
+      this.source = source;
+      this.start += offsetShift;
+      this.stop += offsetShift;
+      this.line += lineShift;
+    }
+  }
+
+  /** Records how far the lexer reads ahead, which tells which tokens an edit may change. */
+  private static final class ReadAheadTrackingStream implements CharStream {
+    private final CharStream delegate;
+    private int readAhead = -1;
+
+    private ReadAheadTrackingStream(CharStream delegate) {
+      this.delegate = delegate;
+    }
+
+    private int readAhead() {
+      return readAhead;
+    }
+
+    /** Moves to an offset up to which the previous tokens have read ahead. */
+    private void resume(int offset, int previousReadAhead) {
+      delegate.seek(offset);
+      readAhead = previousReadAhead;
+    }
+
+    @Override
+    public int LA(int i) {
+      if (i > 0) {
+        readAhead = Math.max(readAhead, delegate.index() + i - 1);
+      }
+      return delegate.LA(i);
+    }
+
+    @Override
+    public void consume() {
+      delegate.consume();
+    }
+
+    @Override
+    public int mark() {
+      return delegate.mark();
+    }
+
+    @Override
+    public void release(int marker) {
+      delegate.release(marker);
+    }
+
+    @Override
+    public int index() {
+      return delegate.index();
+    }
+
+    @Override
+    public void seek(int index) {
+      delegate.seek(index);
+    }
+
+    @Override
+    public int size() {
+      return delegate.size();
+    }
+
+    @Override
+    public String getSourceName() {
+      return delegate.getSourceName();
+    }
+
+    @Override
+    public String getText(Interval interval) {
+      return delegate.getText(interval);
+    }
+  }
+}
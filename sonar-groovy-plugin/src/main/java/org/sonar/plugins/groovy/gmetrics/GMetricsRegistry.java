@@ -0,0 +1,41 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.gmetrics;
+
+import java.util.Collections;
+import java.util.List;
+import org.gmetrics.metric.Metric;
+import org.gmetrics.metric.cyclomatic.CyclomaticComplexityMetric;
+
+/**
+ * The GMetrics metrics to compute: only the metrics behind a saved measure, as each metric costs
+ * one more visit of every class. That is the cyclomatic complexity, whose method results also give
+ * the number of functions.
+ */
+public final class GMetricsRegistry {
+
+  public static final String CYCLOMATIC_COMPLEXITY = "CyclomaticComplexity";
+
+  private GMetricsRegistry() {}
+
+  public static List<Metric> metrics() {
+    return Collections.singletonList(new CyclomaticComplexityMetric());
+  }
+}
@@ -19,100 +19,127 @@
  */
 package org.sonar.plugins.groovy.gmetrics;
 
-import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
-import org.gmetrics.GMetricsRunner;
-import org.gmetrics.analyzer.SourceAnalyzer;
-import org.gmetrics.ant.AntFileSetSourceAnalyzer;
-import org.gmetrics.metric.cyclomatic.CyclomaticComplexityMetric;
-import org.gmetrics.metric.linecount.ClassLineCountMetric;
-import org.gmetrics.metric.linecount.MethodLineCountMetric;
+import java.util.function.BiConsumer;
+import javax.annotation.CheckForNull;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.Phases;
+import org.gmetrics.metric.Metric;
+import org.gmetrics.result.ClassMetricResult;
 import org.gmetrics.resultsnode.ClassResultsNode;
-import org.gmetrics.resultsnode.PackageResultsNode;
-import org.gmetrics.resultsnode.ResultsNode;
-import org.sonar.api.batch.fs.FileSystem;
+import org.gmetrics.source.SourceString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.api.batch.fs.InputFile;
-
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+import org.sonar.plugins.groovy.utils.FileWatchdog;
+import org.sonar.plugins.groovy.utils.OrderedParallelExecutor;
+
+/**
+ * Applies the GMetrics metrics to the classes of each file, on the AST shared with CodeNarc through
+ * {@link GroovyAstProvider}.
+ *
+ * <p>Only the given files are read, from their {@link InputFile} contents: the project directory is
+ * never walked.
+ */
 public class GMetricsSourceAnalyzer {
 
-  private static final List<org.gmetrics.metric.Metric> GMETRICS =
-      Arrays.asList(
-          new CyclomaticComplexityMetric(),
-          new ClassLineCountMetric(),
-          new MethodLineCountMetric());
-
-  private final Map<InputFile, List<ClassResultsNode>> resultsByFile = new HashMap<>();
-
-  private final Map<String, InputFile> pathToInputFile = new HashMap<>();
-  private final Set<File> files = new HashSet<>();
-
-  private final File fileSystemBaseDir;
-
-  public GMetricsSourceAnalyzer(FileSystem fileSystem, List<InputFile> sourceFiles) {
-    this.fileSystemBaseDir = fileSystem.baseDir();
-
-    for (InputFile inputFile : sourceFiles) {
-      pathToInputFile.put(inputFile.absolutePath(), inputFile);
-      files.add(inputFile.file());
-    }
+  /** Name under which GMetrics registers to {@link GroovyAstProvider}. */
+  public static final String AST_CONSUMER = "GMetrics";
+
+  private static final Logger LOG = LoggerFactory.getLogger(GMetricsSourceAnalyzer.class);
+
+  private final GroovySourceCache sourceCache;
+  private final GroovyAstProvider astProvider;
+  private final List<InputFile> sourceFiles;
+  private final List<Metric> metrics;
+
+  /** @param metrics the metrics to compute, usually from {@link GMetricsRegistry} */
+  public GMetricsSourceAnalyzer(
+      GroovySourceCache sourceCache,
+      GroovyAstProvider astProvider,
+      List<InputFile> sourceFiles,
+      List<Metric> metrics) {
+    this.sourceCache = sourceCache;
+    this.astProvider = astProvider;
+    this.sourceFiles = sourceFiles;
+    this.metrics = metrics;
   }
 
-  public Map<InputFile, List<ClassResultsNode>> resultsByFile() {
-    return resultsByFile;
+  /**
+   * Analyzes the files on up to the given number of worker threads, within the time budget of the
+   * watchdog for each file. The class results of each file are handed to {@code resultConsumer} on
+   * the calling thread, in file order, as soon as they are available: they are not kept afterwards.
+   * Files without any class, or skipped by the watchdog, are not handed over.
+   */
+  public void analyze(
+      int threads,
+      FileWatchdog watchdog,
+      BiConsumer<InputFile, List<ClassResultsNode>> resultConsumer) {
+    OrderedParallelExecutor.forEachOrdered(
+        sourceFiles,
+        threads,
+        inputFile -> {
+          try {
+            return watchdog
+                .run("GMetrics", inputFile, () -> analyze(inputFile))
+                .orElse(Collections.emptyList());
+          } finally {
+            astProvider.release(inputFile, AST_CONSUMER);
+          }
+        },
+        (inputFile, results) -> {
+          if (!results.isEmpty()) {
+            resultConsumer.accept(inputFile, results);
+          }
+        });
   }
 
-  public void analyze() {
-    FileSet fileSet = new FileSet();
-    fileSet.setDir(fileSystemBaseDir);
-    fileSet.add((basedir, filename, file) -> files.contains(file));
-
-    List<FileSet> fileSets = new ArrayList<>();
-    fileSets.add(fileSet);
-
-    Project project = new Project();
-    project.setBaseDir(fileSystemBaseDir);
-
-    SourceAnalyzer analyzer = new AntFileSetSourceAnalyzer(project, fileSets);
-
-    GMetricsRunner runner = new GMetricsRunner();
-    runner.setMetricSet(() -> GMETRICS);
-    runner.setSourceAnalyzer(analyzer);
-    ResultsNode resultNode = runner.execute();
-
-    processResults(resultNode, pathToInputFile);
-  }
-
-  private void processResults(ResultsNode resultNode, Map<String, InputFile> pathToInputFile) {
-    if (resultNode instanceof PackageResultsNode) {
-      processPackageResults((PackageResultsNode) resultNode, pathToInputFile);
-    } else {
-      processClassResults((ClassResultsNode) resultNode, pathToInputFile);
+  private List<ClassResultsNode> analyze(InputFile inputFile) {
+    SharedAstSource sourceCode;
+    try {
+      ModuleNode ast = astProvider.get(inputFile, Phases.CONVERSION);
+      if (ast == null) {
+        return Collections.emptyList();
+      }
+      sourceCode = new SharedAstSource(sourceCache.get(inputFile).toString(), ast);
+    } catch (IOException e) {
+      LOG.error("Unable to read file: " + inputFile.filename(), e);
+      return Collections.emptyList();
+    }
+    List<ClassResultsNode> results = new ArrayList<>();
+    for (ClassNode classNode : sourceCode.getAst().getClasses()) {
+      ClassResultsNode classResults =
+          new ClassResultsNode(classNode.getName(), inputFile.absolutePath());
+      for (Metric metric : metrics) {
+        ClassMetricResult classMetricResult = metric.applyToClass(classNode, sourceCode);
+        if (classMetricResult != null) {
+          classResults.addClassMetricResult(classMetricResult);
+        }
+      }
+      results.add(classResults);
     }
+    return results;
   }
 
-  private void processPackageResults(
-      PackageResultsNode resultNode, Map<String, InputFile> pathToInputFile) {
-    for (Entry<String, ResultsNode> entry : resultNode.getChildren().entrySet()) {
-      processResults(entry.getValue(), pathToInputFile);
+  /** GMetrics source whose AST has already been compiled. */
+  private static class SharedAstSource extends SourceString {
+    private final ModuleNode ast;
+
+    private SharedAstSource(String source, ModuleNode ast) {
+      super(source);
+      this.ast = ast;
     }
-  }
 
-  private void processClassResults(
-      ClassResultsNode resultNode, Map<String, InputFile> pathToInputFile) {
-    String filePath = resultNode.getFilePath();
-    InputFile inputFile = pathToInputFile.get(filePath);
-    if (inputFile != null) {
-      resultsByFile.putIfAbsent(inputFile, new ArrayList<>());
-      resultsByFile.get(inputFile).add(resultNode);
+    @CheckForNull
+    @Override
+    public ModuleNode getAst() {
+      return ast;
     }
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.CheckForNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.config.Configuration;
+
+/**
+ * Bounds the wall-clock time spent on each file, so that a pathological input does not stall the
+ * whole analysis.
+ *
+ * <p>With a budget, each task runs on a worker thread while the calling thread waits for it. When
+ * the budget runs out, the worker thread is interrupted, the file is recorded as skipped and the
+ * caller goes on without its result. Tasks should stop when their thread is interrupted: a task
+ * which does not (e.g. third-party code) keeps its daemon thread busy until it ends, and its result
+ * is ignored, and it is counted in {@link #abandonedTasks()} until it ends. Without a budget,
+ * tasks simply run on the calling thread.
+ *
+ * <p>It is safe to use from several threads.
+ */
+public final class FileWatchdog implements AutoCloseable {
+
+  public static final String TIMEOUT_KEY = "sonar.groovy.fileTimeout";
+
+  private static final Logger LOG = LoggerFactory.getLogger(FileWatchdog.class);
+
+  private static final int NEW = 0;
+  private static final int RUNNING = 1;
+  private static final int DONE = 2;
+  private static final int ABANDONED = 3;
+  private static final AtomicInteger ABANDONED_TASKS = new AtomicInteger();
+
+  private final long timeoutMillis;
+  private final Map<String, Long> skipped = new LinkedHashMap<>();
+  private ExecutorService executor;
+
+  public FileWatchdog(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /** Budget of {@link #TIMEOUT_KEY} seconds, none if it is not set or 0. */
+  public static FileWatchdog create(Configuration settings) {
+    return new FileWatchdog(TimeUnit.SECONDS.toMillis(settings.getLong(TIMEOUT_KEY).orElse(0L)));
+  }
+
+  public boolean hasBudget() {
+    return timeoutMillis > 0;
+  }
+
+  /**
+   * Runs the given task on the given file within the budget.
+   *
+   * @param stage what the task does, for logging
+   * @return the result of the task, empty if the budget ran out
+   */
+  public <R> Optional<R> run(String stage, Object file, Supplier<R> task) {
+    if (!hasBudget()) {
+      return Optional.ofNullable(task.get());
+    }
+    long start = System.nanoTime();
+    AtomicInteger state = new AtomicInteger(NEW);
+    Future<R> future = executor().submit(() -> runTracked(task, state));
+    try {
+      return Optional.ofNullable(future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+    } catch (TimeoutException e) {
+      if (state.compareAndSet(RUNNING, ABANDONED)) {
+        ABANDONED_TASKS.incrementAndGet();
+      } else {
+        // Not started yet, it never will
+        state.compareAndSet(NEW, ABANDONED);
+      }
+      future.cancel(true);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      LOG.warn(
+          "{} of {} cancelled after {} ms, more than the {} ms allowed: the file is skipped",
+          stage,
+          file,
+          elapsed,
+          timeoutMillis);
+      synchronized (skipped) {
+        skipped.put(stage + " of " + file, elapsed);
+      }
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while analyzing " + file, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Number of tasks, of all watchdogs, which ran out of budget but have not ended yet because they
+   * ignore interruption. They may still be using state shared with other tasks.
+   */
+  public static int abandonedTasks() {
+    return ABANDONED_TASKS.get();
+  }
+
+  @CheckForNull
+  private static <R> R runTracked(Supplier<R> task, AtomicInteger state) {
+    if (!state.compareAndSet(NEW, RUNNING)) {
+      return null;
+    }
+    try {
+      return task.get();
+    } finally {
+      if (!state.compareAndSet(RUNNING, DONE)) {
+        ABANDONED_TASKS.decrementAndGet();
+      }
+    }
+  }
+
+  /** Elapsed milliseconds of each skipped stage and file, in the order they were skipped. */
+  public Map<String, Long> skipped() {
+    synchronized (skipped) {
+      return new LinkedHashMap<>(skipped);
+    }
+  }
+
+  private synchronized ExecutorService executor() {
+    if (executor == null) {
+      // Threads of tasks which ignore interruption stay busy, new ones are created meanwhile
+      executor = Executors.newCachedThreadPool(new WatchdogThreadFactory());
+    }
+    return executor;
+  }
+
+  /** Logs the skipped files, if any, and stops the idle worker threads. */
+  @Override
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    Map<String, Long> skippedFiles = skipped();
+    if (!skippedFiles.isEmpty()) {
+      LOG.warn(
+          "{} file(s) skipped for exceeding the time budget of {} ms: {}",
+          skippedFiles.size(),
+          timeoutMillis,
+          skippedFiles.keySet());
+    }
+  }
+
+  private static class WatchdogThreadFactory implements ThreadFactory {
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread =
+          new Thread(runnable, "groovy-analysis-watchdog-" + THREAD_NUMBER.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
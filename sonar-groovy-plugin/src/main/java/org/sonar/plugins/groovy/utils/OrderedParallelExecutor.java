@@ -0,0 +1,103 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Runs a task for each input on a bounded pool of worker threads. Results are handed back on the
+ * calling thread, in input order, so that whatever is done with them (e.g. saving measures) stays
+ * deterministic and does not need to be thread-safe.
+ */
+public final class OrderedParallelExecutor {
+
+  private OrderedParallelExecutor() {}
+
+  public static <I, R> void forEachOrdered(
+      List<I> inputs, int threads, Function<I, R> task, BiConsumer<I, R> resultConsumer) {
+    if (threads <= 1 || inputs.size() <= 1) {
+      for (I input : inputs) {
+        resultConsumer.accept(input, task.apply(input));
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    try {
+      // Bound the number of pending results, so that memory does not grow with the input size
+      int maxPending = threads * 2;
+      Deque<Future<R>> pending = new ArrayDeque<>(maxPending);
+      Iterator<I> submitted = inputs.iterator();
+      Iterator<I> consumed = inputs.iterator();
+      while (submitted.hasNext() || !pending.isEmpty()) {
+        while (submitted.hasNext() && pending.size() < maxPending) {
+          I input = submitted.next();
+          pending.addLast(executor.submit(() -> task.apply(input)));
+        }
+        resultConsumer.accept(consumed.next(), await(pending.removeFirst()));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static <R> R await(Future<R> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for analysis results", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final int poolNumber = POOL_NUMBER.incrementAndGet();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread =
+          new Thread(
+              runnable, "groovy-analysis-" + poolNumber + "-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
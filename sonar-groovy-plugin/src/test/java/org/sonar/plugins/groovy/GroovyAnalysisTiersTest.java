@@ -0,0 +1,95 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers.Tier;
+import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+
+public class GroovyAnalysisTiersTest {
+
+  private final MapSettings settings = new MapSettings();
+
+  @Test
+  public void analyze_usual_files_fully() {
+    assertThat(tiers().tierOf(file("a.groovy", "def a = 1\ndef b = 2\n"))).isEqualTo(Tier.FULL);
+  }
+
+  @Test
+  public void skip_ast_rules_of_large_files() {
+    settings.setProperty(GroovyAnalysisTiers.AST_RULES_MAX_LINES, 2);
+
+    Tier tier = tiers().tierOf(file("a.groovy", "def a = 1\ndef b = 2\ndef c = 3\n"));
+
+    assertThat(tier).isEqualTo(Tier.NO_AST_RULES);
+    assertThat(tier.highlights()).isTrue();
+    assertThat(tier.appliesRules()).isTrue();
+    assertThat(tier.appliesAstRules()).isFalse();
+    assertThat(tier.compilesAst()).isFalse();
+  }
+
+  @Test
+  public void only_compute_metrics_of_huge_files() {
+    settings.setProperty(GroovyAnalysisTiers.AST_RULES_MAX_LINES, 1);
+    settings.setProperty(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINES, 2);
+
+    Tier tier = tiers().tierOf(file("a.groovy", "def a = 1\ndef b = 2\ndef c = 3\n"));
+
+    assertThat(tier).isEqualTo(Tier.METRICS_ONLY);
+    assertThat(tier.highlights()).isFalse();
+    assertThat(tier.appliesRules()).isFalse();
+    assertThat(tier.compilesAst()).isFalse();
+  }
+
+  @Test
+  public void only_compute_metrics_of_files_with_long_lines() {
+    settings.setProperty(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINE_LENGTH, 10);
+    GroovyAnalysisTiers tiers = tiers();
+
+    assertThat(tiers.tierOf(file("a.groovy", "def a = 1\r\ndef b = 2\r\n"))).isEqualTo(Tier.FULL);
+    assertThat(tiers.tierOf(file("b.groovy", "def a = [1, 2]\n"))).isEqualTo(Tier.METRICS_ONLY);
+  }
+
+  @Test
+  public void no_limit_when_thresholds_are_zero() {
+    settings.setProperty(GroovyAnalysisTiers.AST_RULES_MAX_LINES, 0);
+    settings.setProperty(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINES, 0);
+    settings.setProperty(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINE_LENGTH, 0);
+
+    assertThat(tiers().tierOf(file("a.groovy", "def a = [1, 2]\ndef b = 2\n")))
+        .isEqualTo(Tier.FULL);
+  }
+
+  private GroovyAnalysisTiers tiers() {
+    return new GroovyAnalysisTiers(settings.asConfig(), new GroovySourceCache(settings.asConfig()));
+  }
+
+  private static InputFile file(String name, String contents) {
+    return TestInputFileBuilder.create("", name)
+        .setLanguage(Groovy.KEY)
+        .setContents(contents)
+        .build();
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.Token;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.apache.groovy.parser.antlr4.GroovySyntaxError;
+import org.junit.Test;
+
+public class GroovyLineClassifierTest {
+
+  @Test
+  public void same_metrics_as_the_lexer_on_test_resources() throws IOException {
+    Path resources = TestUtils.getResource("/org/sonar/plugins/groovy").toPath();
+    List<Path> sources;
+    try (Stream<Path> files = Files.walk(resources)) {
+      sources =
+          files.filter(file -> file.toString().endsWith(".groovy")).collect(Collectors.toList());
+    }
+    assertThat(sources).hasSizeGreaterThan(3);
+
+    int compared = 0;
+    for (Path file : sources) {
+      String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      if (assertSameMetricsAsLexer(file.toString(), source)) {
+        compared++;
+      }
+    }
+    // foundation/Error.groovy does not lex
+    assertThat(compared).isEqualTo(sources.size() - 1);
+  }
+
+  @Test
+  public void same_metrics_as_the_lexer_on_tricky_sources() {
+    String[] sources = {
+      "def a = 4 / 2 / 1\ndef b = /regex/\n",
+      "def s = \"\"\"a\n${x\n}b\n$y.z\nc\"\"\"\n",
+      "def r = /a\nb/\ndef d = $/x\n$$ $/ y\n/$\n",
+      "foo(a, // c\n b /* q */)\nx = /y/\n",
+      "try (def r = open()) /* c */\n{\n}\n",
+      "x++ / 2\ny-- / 3 / 4\nz = [1] / 2\n",
+      "def t = '''a\n'''' + \"\"\"b\"\"\"\"\"\n",
+      "def e = ''\n'''\nx'''\n",
+      "1..2int / 3\n.5\n",
+      "a = /x\\/\nb\n",
+      "a = b /* not\n closed\n",
+      "/**\n * doc\n *\n */\nclass A {\n  // c\n}\n",
+      "x = \"${ \"${ '}' }\" }\"\n/* a */ y\n",
+      "def \u00e9t\u00e9 = 'caf\u00e9'\r\nx = 1\r\n// done\r\n",
+      "x = 1 \\\n + 2\n",
+    };
+    for (String source : sources) {
+      assertThat(assertSameMetricsAsLexer(source, source)).as(source).isTrue();
+    }
+  }
+
+  @Test
+  public void tells_slashy_strings_from_divisions() {
+    BaseMetrics metrics =
+        GroovyLineClassifier.classify("def a = b /\n  c / d\ndef r = /\n  x /\n", true);
+
+    assertThat(metrics.nclocLines().stream().boxed()).containsExactly(1, 2, 3);
+    assertThat(metrics.comments()).isZero();
+  }
+
+  @Test
+  public void counts_comment_lines() {
+    String source = "// header\nx = 1 // a\n/*\n * b\n *\n */\ny = '// not a comment'\n";
+
+    BaseMetrics withHeader = GroovyLineClassifier.classify(source, false);
+    BaseMetrics withoutHeader = GroovyLineClassifier.classify(source, true);
+
+    assertThat(withHeader.comments()).isEqualTo(3);
+    assertThat(withoutHeader.comments()).isEqualTo(2);
+    assertThat(withHeader.loc()).isEqualTo(2);
+    assertThat(withHeader.nclocLines().stream().boxed()).containsExactly(2, 7);
+  }
+
+  /** Returns {@code false} if the lexer rejects the source. */
+  private static boolean assertSameMetricsAsLexer(String description, String source) {
+    for (boolean ignoreHeaderComments : new boolean[] {true, false}) {
+      BaseMetricsCounter expected = new BaseMetricsCounter(ignoreHeaderComments);
+      try {
+        GroovyLexer lexer = new GroovyLangLexer(CharStreams.fromString(source));
+        for (Token token = lexer.nextToken();
+            token.getType() != Token.EOF;
+            token = lexer.nextToken()) {
+          expected.accept(token);
+        }
+      } catch (GroovySyntaxError e) {
+        return false;
+      }
+
+      BaseMetrics actual = GroovyLineClassifier.classify(source, ignoreHeaderComments);
+
+      assertThat(actual.nclocLines()).as(description).isEqualTo(expected.nclocLines());
+      assertThat(actual.loc()).as(description).isEqualTo(expected.loc());
+      assertThat(actual.comments()).as(description).isEqualTo(expected.comments());
+    }
+    return true;
+  }
+}
@@ -28,33 +28,60 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.batch.fs.internal.DefaultFileSystem;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.batch.measure.Measure;
+import org.sonar.api.batch.measure.Metric;
+import org.sonar.api.batch.sensor.highlighting.TypeOfText;
 import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
 import org.sonar.api.batch.sensor.internal.SensorContextTester;
 import org.sonar.api.config.internal.MapSettings;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.FileLinesContext;
 import org.sonar.api.measures.FileLinesContextFactory;
+import org.sonar.duplications.internal.pmd.TokensLine;
 import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
 
 public class GroovySensorTest {
 
   private MapSettings settings = new MapSettings();
   private FileLinesContextFactory fileLinesContextFactory = mock(FileLinesContextFactory.class);
   private DefaultFileSystem fileSystem = new DefaultFileSystem(Paths.get("."));
+  private GroovySourceCache sourceCache = new GroovySourceCache(settings.asConfig());
   private GroovySensor sensor =
-      new GroovySensor(settings.asConfig(), fileLinesContextFactory, fileSystem);
+      new GroovySensor(
+          settings.asConfig(),
+          fileLinesContextFactory,
+          fileSystem,
+          sourceCache,
+          tiers(),
+          astProvider());
 
   @Test
   public void do_nothing_when_no_groovy_file() throws IOException {
     SensorContextTester context = SensorContextTester.create(Paths.get("."));
     context = Mockito.spy(context);
-    sensor = new GroovySensor(settings.asConfig(), fileLinesContextFactory, context.fileSystem());
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            fileLinesContextFactory,
+            context.fileSystem(),
+            sourceCache,
+            tiers(),
+            astProvider());
     sensor.execute(context);
 
     Mockito.verify(context, Mockito.never()).newHighlighting();
@@ -70,6 +97,18 @@ public class GroovySensorTest {
     testMetrics(true, 3);
   }
 
+  @Test
+  public void compute_structural_metrics_from_tokens() throws IOException {
+    settings.setProperty(GroovySensor.STRUCTURAL_METRICS_ENGINE, GroovySensor.TOKENS_ENGINE);
+    testMetrics(false, 5);
+  }
+
+  @Test
+  public void compare_structural_metrics_saves_the_gmetrics_ones() throws IOException {
+    settings.setProperty(GroovySensor.STRUCTURAL_METRICS_ENGINE, GroovySensor.COMPARE_ENGINES);
+    testMetrics(false, 5);
+  }
+
   private void testMetrics(boolean headerComment, int expectedCommentMetric) throws IOException {
     settings.setProperty(GroovySensor.IGNORE_HEADER_COMMENTS, headerComment);
 
@@ -89,7 +128,14 @@ public class GroovySensorTest {
     when(fileLinesContextFactory.createFor(any(DefaultInputFile.class)))
         .thenReturn(fileLinesContext);
 
-    sensor = new GroovySensor(settings.asConfig(), fileLinesContextFactory, fileSystem);
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            fileLinesContextFactory,
+            fileSystem,
+            sourceCache,
+            tiers(),
+            astProvider());
     sensor.execute(context);
 
     String key = groovyFile.key();
@@ -110,6 +156,235 @@ public class GroovySensorTest {
     Mockito.verify(fileLinesContext, Mockito.times(1)).save();
   }
 
+  @Test
+  public void compute_structural_metrics_of_files_only_known_by_their_contents()
+      throws IOException {
+    SensorContextTester context = SensorContextTester.create(Paths.get("."));
+    InputFile groovyFile =
+        TestInputFileBuilder.create("", "src/NotOnDisk.groovy")
+            .setLanguage(Groovy.KEY)
+            .setContents("class A {\n  def a(b) {\n    if (b) {\n      return 1\n    }\n  }\n}\n")
+            .build();
+    context.fileSystem().add(groovyFile);
+    when(fileLinesContextFactory.createFor(any(DefaultInputFile.class)))
+        .thenReturn(mock(FileLinesContext.class));
+
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            fileLinesContextFactory,
+            context.fileSystem(),
+            sourceCache,
+            tiers(),
+            astProvider());
+    sensor.execute(context);
+
+    String key = groovyFile.key();
+    assertThat(context.measure(key, CoreMetrics.CLASSES).value()).isEqualTo(1);
+    assertThat(context.measure(key, CoreMetrics.FUNCTIONS).value()).isEqualTo(1);
+    assertThat(context.measure(key, CoreMetrics.COMPLEXITY).value()).isEqualTo(2);
+  }
+
+  @Test
+  public void highlight_main_and_test_files_in_the_same_pass() throws IOException {
+    Path sourceFile = TestUtils.getResource(getClass(), "../gmetrics/Greeting.groovy");
+    String contents = new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8);
+    SensorContextTester context = SensorContextTester.create(sourceFile.getParent());
+
+    InputFile mainFile =
+        TestInputFileBuilder.create("", "Greeting.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.MAIN)
+            .setContents(contents)
+            .setCharset(StandardCharsets.UTF_8)
+            .build();
+    InputFile testFile =
+        TestInputFileBuilder.create("", "GreetingSpec.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.TEST)
+            .setContents(contents)
+            .setCharset(StandardCharsets.UTF_8)
+            .build();
+    context.fileSystem().add(mainFile);
+    context.fileSystem().add(testFile);
+
+    FileLinesContext fileLinesContext = mock(FileLinesContext.class);
+    when(fileLinesContextFactory.createFor(any(InputFile.class))).thenReturn(fileLinesContext);
+
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            fileLinesContextFactory,
+            context.fileSystem(),
+            sourceCache,
+            tiers(),
+            astProvider());
+    sensor.execute(context);
+
+    assertThat(context.highlightingTypeAt(mainFile.key(), 5, 0)).containsOnly(TypeOfText.KEYWORD);
+    assertThat(context.highlightingTypeAt(mainFile.key(), 1, 0)).isEmpty();
+    assertThat(context.highlightingTypeAt(testFile.key(), 5, 0)).containsOnly(TypeOfText.KEYWORD);
+    assertThat(context.cpdTokens(mainFile.key())).isNotEmpty();
+    assertThat(context.cpdTokens(testFile.key())).isNull();
+
+    assertThat(context.measure(mainFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(17);
+    assertThat(context.measure(testFile.key(), CoreMetrics.NCLOC)).isNull();
+    Mockito.verify(fileLinesContextFactory, Mockito.times(1)).createFor(any(InputFile.class));
+  }
+
+  @Test
+  public void compute_only_metrics_of_files_with_too_many_lines() throws IOException {
+    Path sourceFile = TestUtils.getResource(getClass(), "../gmetrics/Greeting.groovy");
+    String contents = new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8);
+    SensorContextTester context = SensorContextTester.create(sourceFile.getParent());
+
+    InputFile mainFile =
+        TestInputFileBuilder.create("", "Greeting.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.MAIN)
+            .setContents(contents)
+            .setCharset(StandardCharsets.UTF_8)
+            .build();
+    InputFile testFile =
+        TestInputFileBuilder.create("", "GreetingSpec.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.TEST)
+            .setContents(contents)
+            .setCharset(StandardCharsets.UTF_8)
+            .build();
+    context.fileSystem().add(mainFile);
+    context.fileSystem().add(testFile);
+
+    FileLinesContext fileLinesContext = mock(FileLinesContext.class);
+    when(fileLinesContextFactory.createFor(any(InputFile.class))).thenReturn(fileLinesContext);
+
+    settings.setProperty(GroovyAnalysisTiers.HIGHLIGHTING_MAX_LINES, 10);
+    GroovyAstProvider astProvider = Mockito.spy(astProvider());
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            fileLinesContextFactory,
+            context.fileSystem(),
+            sourceCache,
+            tiers(),
+            astProvider);
+    sensor.execute(context);
+
+    assertThat(context.highlightingTypeAt(mainFile.key(), 5, 0)).isEmpty();
+    assertThat(context.highlightingTypeAt(testFile.key(), 5, 0)).isEmpty();
+    assertThat(context.cpdTokens(mainFile.key())).isNull();
+    assertThat(context.measure(mainFile.key(), CoreMetrics.NCLOC).value()).isEqualTo(17);
+    // GMetrics does not compile the file
+    Mockito.verify(astProvider, Mockito.never()).get(any(InputFile.class), anyInt());
+    assertThat(context.measure(mainFile.key(), CoreMetrics.COMPLEXITY)).isNull();
+  }
+
+  @Test
+  public void parallel_analysis_computes_the_same_measures_as_sequential_analysis()
+      throws IOException {
+    Map<String, Map<String, Object>> sequential = measuresWithThreads(1);
+    Map<String, Map<String, Object>> parallel = measuresWithThreads(4);
+
+    assertThat(sequential).hasSize(8);
+    assertThat(parallel).isEqualTo(sequential);
+  }
+
+  @Test
+  public void scanner_engine_computes_the_same_base_metrics_without_lexing() throws IOException {
+    Map<String, Map<String, Object>> lexed = measuresWithThreads(1);
+    settings.setProperty(GroovySensor.BASE_METRICS_ENGINE, GroovySensor.SCANNER_ENGINE);
+    Map<String, Map<String, Object>> scanned = measuresWithThreads(1);
+
+    assertThat(scanned).hasSameSizeAs(lexed);
+    for (Map.Entry<String, Map<String, Object>> file : lexed.entrySet()) {
+      if (file.getKey().endsWith("Error.groovy")) {
+        // the lexer stops at the first error, the scanner goes on
+        continue;
+      }
+      Map<String, Object> expected = new HashMap<>(file.getValue());
+      expected.put("cpd", null);
+      assertThat(scanned.get(file.getKey())).as(file.getKey()).isEqualTo(expected);
+    }
+  }
+
+  /** Analyzes copies of the test resources and returns measures and NCLOC data by file key. */
+  private Map<String, Map<String, Object>> measuresWithThreads(int threads) throws IOException {
+    settings.setProperty(GroovySensor.THREADS, threads);
+    Path baseDir = TestUtils.getResource(getClass(), "../gmetrics/Greeting.groovy").getParent();
+    SensorContextTester context = SensorContextTester.create(baseDir);
+    String[] resources = {
+      "../gmetrics/Greeting.groovy",
+      "../foundation/Greet.groovy",
+      "../foundation/Error.groovy",
+      "../codenarc/parsing/Sample.groovy"
+    };
+    List<InputFile> files = new ArrayList<>();
+    for (int copy = 0; copy < 2; copy++) {
+      for (String resource : resources) {
+        Path sourceFile = TestUtils.getResource(getClass(), resource);
+        InputFile inputFile =
+            TestInputFileBuilder.create("", copy + "/" + sourceFile.getFileName())
+                .setLanguage(Groovy.KEY)
+                .setType(Type.MAIN)
+                .setContents(new String(Files.readAllBytes(sourceFile), StandardCharsets.UTF_8))
+                .setCharset(StandardCharsets.UTF_8)
+                .build();
+        context.fileSystem().add(inputFile);
+        files.add(inputFile);
+      }
+    }
+
+    Map<String, Map<String, Object>> measures = new HashMap<>();
+    FileLinesContextFactory recordingFactory =
+        inputFile -> {
+          Map<String, Object> fileMeasures =
+              measures.computeIfAbsent(inputFile.key(), k -> new HashMap<>());
+          FileLinesContext fileLinesContext = mock(FileLinesContext.class);
+          Mockito.doAnswer(
+                  invocation ->
+                      fileMeasures.put(
+                          invocation.getArgument(0) + ":" + invocation.getArgument(1),
+                          invocation.getArgument(2)))
+              .when(fileLinesContext)
+              .setIntValue(anyString(), anyInt(), anyInt());
+          return fileLinesContext;
+        };
+
+    sensor =
+        new GroovySensor(
+            settings.asConfig(),
+            recordingFactory,
+            context.fileSystem(),
+            sourceCache,
+            tiers(),
+            astProvider());
+    sensor.execute(context);
+
+    for (InputFile file : files) {
+      Map<String, Object> fileMeasures =
+          measures.computeIfAbsent(file.key(), k -> new HashMap<>());
+      for (Metric<?> metric :
+          Arrays.asList(
+              CoreMetrics.NCLOC,
+              CoreMetrics.COMMENT_LINES,
+              CoreMetrics.CLASSES,
+              CoreMetrics.FUNCTIONS,
+              CoreMetrics.COMPLEXITY)) {
+        Measure<?> measure = context.measure(file.key(), metric.key());
+        fileMeasures.put(metric.key(), measure == null ? null : measure.value());
+      }
+      List<TokensLine> cpdTokens = context.cpdTokens(file.key());
+      fileMeasures.put(
+          "cpd",
+          cpdTokens == null
+              ? null
+              : cpdTokens.stream()
+                  .map(line -> line.getStartLine() + ":" + line.getValue())
+                  .collect(Collectors.toList()));
+    }
+    return measures;
+  }
+
   @Test
   public void test_toString() {
     assertThat(sensor).hasToString("GroovySensor");
@@ -121,4 +396,12 @@ public class GroovySensorTest {
     sensor.describe(defaultSensorDescriptor);
     assertThat(defaultSensorDescriptor.languages()).containsOnly(Groovy.KEY);
   }
+
+  private GroovyAnalysisTiers tiers() {
+    return new GroovyAnalysisTiers(settings.asConfig(), sourceCache);
+  }
+
+  private GroovyAstProvider astProvider() {
+    return new GroovyAstProvider(settings.asConfig(), sourceCache);
+  }
 }
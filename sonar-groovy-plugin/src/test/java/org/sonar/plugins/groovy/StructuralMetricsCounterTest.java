@@ -0,0 +1,112 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.Token;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.junit.Test;
+
+public class StructuralMetricsCounterTest {
+
+  @Test
+  public void counts_methods_and_decision_points_of_classes() {
+    StructuralMetrics metrics =
+        count(
+            "class A {\n"
+                + "  A() { if (a) {} }\n"
+                + "  public A(int x) { if (b) {} }\n"
+                + "  def c = { x ? 1 : 2 }\n"
+                + "  abstract void m()\n"
+                + "  List<? extends X> n() throws IOException, Foo { a && b || c?.d ?: e }\n"
+                + "}\n");
+
+    assertThat(metrics.classes()).isEqualTo(1);
+    // constructors and methods without body are not functions
+    assertThat(metrics.functions()).isEqualTo(2);
+    assertThat(metrics.complexity()).isEqualTo(2 + 4);
+  }
+
+  @Test
+  public void counts_one_class_for_scripts() {
+    StructuralMetrics metrics =
+        count(
+            "println 'x'\n"
+                + "def f(a) { for (x in a) { switch (x) { case 1: break; case 2: break } } }\n"
+                + "foo(x) { if (y) z }\n");
+
+    assertThat(metrics.classes()).isEqualTo(1);
+    assertThat(metrics.functions()).isEqualTo(1);
+    // the statements of the script are not part of any function
+    assertThat(metrics.complexity()).isEqualTo(4);
+  }
+
+  @Test
+  public void counts_anonymous_classes_and_quoted_method_names() {
+    StructuralMetrics metrics =
+        count(
+            "@CompileStatic\n"
+                + "class B {\n"
+                + "  def \"a spock feature\"() {\n"
+                + "    when: x = new Runnable() { void run() { while (t) {} } }\n"
+                + "    then: thrown(X)\n"
+                + "  }\n"
+                + "}\n");
+
+    assertThat(metrics.classes()).isEqualTo(2);
+    assertThat(metrics.functions()).isEqualTo(2);
+    assertThat(metrics.complexity()).isEqualTo(3);
+  }
+
+  @Test
+  public void does_not_count_declarations_headers_as_script() {
+    StructuralMetrics metrics =
+        count(
+            "package a\n"
+                + "import b\n"
+                + "@Foo(x = 1)\n"
+                + "interface I { void m(); default int n() { try { } catch (e) {} } }\n"
+                + "enum E { A, B; E() {} }\n"
+                + "record R(int x) { int y() { 1 } }\n");
+
+    assertThat(metrics.classes()).isEqualTo(3);
+    assertThat(metrics.functions()).isEqualTo(2);
+    assertThat(metrics.complexity()).isEqualTo(3);
+  }
+
+  @Test
+  public void ignores_type_keywords_used_as_names() {
+    StructuralMetrics metrics = count("def m = [class: 1]\nprintln X.class\n");
+
+    assertThat(metrics.classes()).isEqualTo(1);
+    assertThat(metrics.functions()).isZero();
+  }
+
+  private static StructuralMetrics count(String source) {
+    StructuralMetricsCounter counter = new StructuralMetricsCounter();
+    GroovyLexer lexer = new GroovyLangLexer(CharStreams.fromString(source));
+    for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+      counter.accept(token);
+    }
+    return counter;
+  }
+}
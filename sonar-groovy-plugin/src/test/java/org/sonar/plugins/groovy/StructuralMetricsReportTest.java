@@ -0,0 +1,41 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class StructuralMetricsReportTest {
+
+  @Test
+  public void summarizes_deviation_from_gmetrics() {
+    StructuralMetricsReport report = new StructuralMetricsReport();
+    report.add("A.groovy", StructuralMetrics.of(1, 4, 10), StructuralMetrics.of(1, 4, 9));
+    report.add("B.groovy", StructuralMetrics.of(2, 6, 10), StructuralMetrics.of(2, 5, 11));
+    report.add("C.groovy", null, StructuralMetrics.of(1, 1, 1));
+
+    assertThat(report.summary())
+        .containsExactly(
+            "Structural metrics from tokens compared with GMetrics on 2 file(s)",
+            "  classes: identical on 2 of 2 file(s), 3 with GMetrics, 3 from tokens, 0.0% deviation",
+            "  functions: identical on 1 of 2 file(s), 10 with GMetrics, 9 from tokens, 10.0% deviation",
+            "  complexity: identical on 0 of 2 file(s), 20 with GMetrics, 20 from tokens, 10.0% deviation");
+  }
+}
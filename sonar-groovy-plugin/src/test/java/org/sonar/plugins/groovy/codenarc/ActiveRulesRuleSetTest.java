@@ -0,0 +1,84 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.codenarc.rule.basic.AddEmptyStringRule;
+import org.codenarc.rule.design.PrivateFieldCouldBeFinalRule;
+import org.codenarc.rule.size.ClassSizeRule;
+import org.junit.Test;
+
+public class ActiveRulesRuleSetTest {
+
+  @Test
+  public void shouldCreateActiveRules() {
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.basic.AddEmptyStringRule")
+            .addRule("org.codenarc.rule.design.PrivateFieldCouldBeFinalRule.fixed");
+
+    ActiveRulesRuleSet ruleSet = ruleSet(activeRulesBuilder);
+
+    assertThat(ruleSet.getRules())
+        .extracting(Object::getClass)
+        .containsExactlyInAnyOrder(AddEmptyStringRule.class, PrivateFieldCouldBeFinalRule.class);
+  }
+
+  @Test
+  public void shouldApplyParameters() {
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.size.ClassSizeRule")
+            .addParam("maxLines", "20");
+
+    ClassSizeRule rule = (ClassSizeRule) ruleSet(activeRulesBuilder).getRules().get(0);
+
+    assertThat(rule.getMaxLines()).isEqualTo(20);
+  }
+
+  @Test
+  public void shouldNotApplyUnsetParameters() {
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.size.ClassSizeRule")
+            .addParam("maxLines", null);
+
+    ClassSizeRule rule = (ClassSizeRule) ruleSet(activeRulesBuilder).getRules().get(0);
+
+    assertThat(rule.getMaxLines()).isEqualTo(new ClassSizeRule().getMaxLines());
+  }
+
+  @Test
+  public void shouldFailOnUnknownRule() {
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper().addRule("org.codenarc.rule.UnknownRule");
+
+    assertThatThrownBy(() -> ruleSet(activeRulesBuilder))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("org.codenarc.rule.UnknownRule");
+  }
+
+  private static ActiveRulesRuleSet ruleSet(ActiveRulesBuilderWrapper activeRulesBuilder) {
+    return new ActiveRulesRuleSet(
+        activeRulesBuilder.build().findByRepository(CodeNarcRulesDefinition.REPOSITORY_KEY));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.codenarc.rule.Violation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.groovy.codenarc.CodeNarcRuleSetCacheTest.StatelessRule;
+
+public class CodeNarcRuleProfilerTest {
+
+  @Rule public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private final CodeNarcRuleProfiler profiler = new CodeNarcRuleProfiler();
+
+  @Test
+  public void records_files_and_violations_of_each_rule() {
+    StatelessRule rule = new StatelessRule();
+
+    List<Violation> violations =
+        profiler.apply(rule, () -> Arrays.asList(new Violation(), new Violation()));
+    profiler.keptViolations(rule, 1);
+    profiler.apply(rule, () -> Arrays.asList(new Violation()));
+    profiler.keptViolations(rule, 1);
+
+    assertThat(violations).hasSize(2);
+    assertThat(profiler.sortedCosts()).hasSize(1);
+    CodeNarcRuleProfiler.RuleCost cost = profiler.sortedCosts().get(0).getValue();
+    assertThat(cost.files.sum()).isEqualTo(2);
+    assertThat(cost.violations.sum()).isEqualTo(2);
+  }
+
+  @Test
+  public void writes_json_and_csv_reports() throws Exception {
+    StatelessRule rule = new StatelessRule();
+    profiler.apply(rule, () -> Arrays.asList(new Violation()));
+    profiler.keptViolations(rule, 1);
+
+    File directory = new File(tmpDir.getRoot(), "codenarc");
+    profiler.report(directory);
+
+    List<String> csv =
+        Files.readAllLines(
+            new File(directory, CodeNarcRuleProfiler.CSV_REPORT).toPath(), StandardCharsets.UTF_8);
+    assertThat(csv).hasSize(2);
+    assertThat(csv.get(0)).isEqualTo("rule,wall_ms,cpu_ms,files,violations");
+    assertThat(csv.get(1)).startsWith(rule.getName() + ",").endsWith(",1,1");
+    String json =
+        new String(
+            Files.readAllBytes(new File(directory, CodeNarcRuleProfiler.JSON_REPORT).toPath()),
+            StandardCharsets.UTF_8);
+    assertThat(json).contains("\"rule\":\"" + rule.getName() + "\"", "\"files\":1");
+  }
+}
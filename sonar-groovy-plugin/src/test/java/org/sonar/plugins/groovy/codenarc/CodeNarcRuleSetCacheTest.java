@@ -0,0 +1,164 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.codenarc.rule.Rule;
+import org.codenarc.rule.Violation;
+import org.codenarc.source.SourceCode;
+import org.junit.Test;
+import org.sonar.api.batch.rule.ActiveRules;
+
+public class CodeNarcRuleSetCacheTest {
+
+  private final CodeNarcRuleSetCache cache =
+      new CodeNarcRuleSetCache(Collections.singleton(StatefulRule.class.getName()));
+
+  @Test
+  public void shouldShareRulesOfIdenticalProfiles() {
+    List<?> first =
+        rules(
+            new ActiveRulesBuilderWrapper()
+                .addRule("org.codenarc.rule.basic.AddEmptyStringRule")
+                .addRule("org.codenarc.rule.size.ClassSizeRule")
+                .addParam("maxLines", "20"));
+    List<?> second =
+        rules(
+            new ActiveRulesBuilderWrapper()
+                .addRule("org.codenarc.rule.size.ClassSizeRule")
+                .addParam("maxLines", "20")
+                .addRule("org.codenarc.rule.basic.AddEmptyStringRule"));
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(second).hasSize(2);
+    assertThat(second.get(0)).isSameAs(first.get(0));
+    assertThat(second.get(1)).isSameAs(first.get(1));
+  }
+
+  @Test
+  public void shouldNotShareRulesOfProfilesWithOtherParameters() {
+    List<?> first =
+        rules(
+            new ActiveRulesBuilderWrapper()
+                .addRule("org.codenarc.rule.size.ClassSizeRule")
+                .addParam("maxLines", "20"));
+    List<?> second =
+        rules(
+            new ActiveRulesBuilderWrapper()
+                .addRule("org.codenarc.rule.size.ClassSizeRule")
+                .addParam("maxLines", "30"));
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(second.get(0)).isNotSameAs(first.get(0));
+  }
+
+  @Test
+  public void shouldCloneStatefulRules() {
+    ActiveRulesBuilderWrapper activeRules =
+        new ActiveRulesBuilderWrapper().addRule(StatefulRule.class.getName());
+
+    List<?> first = rules(activeRules);
+    List<?> second = rules(activeRules);
+
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(second.get(0)).isInstanceOf(StatefulRule.class).isNotSameAs(first.get(0));
+  }
+
+  @Test
+  public void shouldCloneStatefulCodeNarcRules() {
+    CodeNarcRuleSetCache defaultCache = new CodeNarcRuleSetCache();
+    ActiveRulesBuilderWrapper activeRules =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.size.CrapMetricRule")
+            .addRule("org.codenarc.rule.size.ClassSizeRule");
+
+    List<?> first = rules(defaultCache, activeRules);
+    List<?> second = rules(defaultCache, activeRules);
+
+    assertThat(second.get(0).getClass().getName())
+        .isEqualTo("org.codenarc.rule.size.ClassSizeRule");
+    assertThat(second.get(0)).isSameAs(first.get(0));
+    assertThat(second.get(1).getClass().getName())
+        .isEqualTo("org.codenarc.rule.size.CrapMetricRule");
+    assertThat(second.get(1)).isNotSameAs(first.get(1));
+  }
+
+  @Test
+  public void shouldOnlyConsiderListedRulesStateful() {
+    assertThat(cache.isStateful(new StatefulRule())).isTrue();
+    assertThat(cache.isStateful(new StatelessRule())).isFalse();
+    assertThat(new CodeNarcRuleSetCache().isStateful(new StatefulRule())).isFalse();
+  }
+
+  private List<?> rules(ActiveRulesBuilderWrapper activeRulesBuilder) {
+    return rules(cache, activeRulesBuilder);
+  }
+
+  private static List<?> rules(
+      CodeNarcRuleSetCache ruleSetCache, ActiveRulesBuilderWrapper activeRulesBuilder) {
+    ActiveRules activeRules = activeRulesBuilder.build();
+    return ruleSetCache
+        .ruleSet(activeRules.findByRepository(CodeNarcRulesDefinition.REPOSITORY_KEY))
+        .getRules();
+  }
+
+  public static class StatelessRule implements Rule {
+    private final List<String> names = new ArrayList<>();
+    private int priority = 2;
+
+    @Override
+    public List<Violation> applyTo(SourceCode sourceCode) {
+      return new ArrayList<>();
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+
+    public void setPriority(int priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public String getName() {
+      return "Stateless" + names;
+    }
+
+    @Override
+    public int getCompilerPhase() {
+      return SourceCode.DEFAULT_COMPILER_PHASE;
+    }
+  }
+
+  public static class StatefulRule extends StatelessRule {
+    private int appliedFiles = 0;
+
+    @Override
+    public List<Violation> applyTo(SourceCode sourceCode) {
+      appliedFiles++;
+      return super.applyTo(sourceCode);
+    }
+  }
+}
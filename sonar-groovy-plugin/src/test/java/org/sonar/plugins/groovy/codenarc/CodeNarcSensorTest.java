@@ -19,6 +19,8 @@
 package org.sonar.plugins.groovy.codenarc;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 
 import java.io.File;
 import java.io.IOException;
@@ -28,27 +30,39 @@ import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.codenarc.rule.Violation;
+import org.codenarc.source.SourceCode;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
 import org.sonar.api.batch.sensor.internal.DefaultSensorDescriptor;
 import org.sonar.api.batch.sensor.internal.SensorContextTester;
 import org.sonar.api.config.internal.MapSettings;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers;
 import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
 import org.sonar.plugins.groovy.foundation.GroovyFileSystem;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
 
 public class CodeNarcSensorTest {
   @Rule public TemporaryFolder temp = new TemporaryFolder();
 
   private SensorContextTester sensorContextTester;
   private MapSettings settings = new MapSettings();
+  private GroovySourceCache sourceCache;
+  private GroovyAstProvider astProvider;
 
   @Before
   public void setUp() throws Exception {
@@ -56,12 +70,13 @@ public class CodeNarcSensorTest {
     sensorContextTester.fileSystem().setWorkDir(temp.newFolder().toPath());
 
     sensorContextTester.setSettings(settings);
+    sourceCache = new GroovySourceCache(settings.asConfig());
+    astProvider = new GroovyAstProvider(settings.asConfig(), sourceCache);
   }
 
   @Test
   public void test_description() {
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(null, new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     DefaultSensorDescriptor defaultSensorDescriptor = new DefaultSensorDescriptor();
     sensor.describe(defaultSensorDescriptor);
     assertThat(defaultSensorDescriptor.languages()).containsOnly(Groovy.KEY);
@@ -98,10 +113,7 @@ public class CodeNarcSensorTest {
     addFileWithFakeContent("src/org/codenarc/sample/service/OtherService.groovy");
     addFileWithFakeContent("src/org/codenarc/sample/service/SampleService.groovy");
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).hasSize(17);
@@ -123,10 +135,7 @@ public class CodeNarcSensorTest {
     addFileWithFakeContent("src/org/codenarc/sample/service/OtherService.groovy");
     addFileWithFakeContent("src/org/codenarc/sample/service/SampleService.groovy");
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).isEmpty();
@@ -145,10 +154,7 @@ public class CodeNarcSensorTest {
 
     addFileWithFakeContent("src/org/codenarc/sample/domain/Unknown.groovy");
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).isEmpty();
@@ -165,15 +171,32 @@ public class CodeNarcSensorTest {
             .setInternalKey("EmptyClass");
     sensorContextTester.setActiveRules(activeRulesBuilder.build());
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).hasSize(1);
   }
 
+  @Test
+  public void should_not_apply_ast_rules_to_large_files() throws IOException {
+    settings.setProperty("sonar.groovy.tiers.astRulesMaxLines", 2);
+    addFileWithContent("src/sample.groovy", "package source\nclass SourceFile1 {\n}");
+
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.basic.EmptyClassRule")
+            .setInternalKey("EmptyClass");
+    sensorContextTester.setActiveRules(activeRulesBuilder.build());
+    astProvider = Mockito.spy(astProvider);
+
+    CodeNarcSensor sensor = sensor();
+    sensor.execute(sensorContextTester);
+
+    assertThat(sensorContextTester.allIssues()).isEmpty();
+    // Not even compiled to read SuppressWarnings annotations
+    Mockito.verify(astProvider, Mockito.never()).get(any(InputFile.class), anyInt());
+  }
+
   @Test
   public void should_do_nothing_when_can_not_find_report_path() throws Exception {
 
@@ -185,10 +208,7 @@ public class CodeNarcSensorTest {
         new ActiveRulesBuilderWrapper().addRule("org.codenarc.rule.basic.EmptyClassRule");
     sensorContextTester.setActiveRules(activeRulesBuilder.build());
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).isEmpty();
@@ -206,15 +226,89 @@ public class CodeNarcSensorTest {
             .setInternalKey("EmptyClass");
     sensorContextTester.setActiveRules(activeRulesBuilder.build());
 
-    CodeNarcSensor sensor =
-        new CodeNarcSensor(
-            sensorContextTester.activeRules(),
-            new GroovyFileSystem(sensorContextTester.fileSystem()));
+    CodeNarcSensor sensor = sensor();
     sensor.execute(sensorContextTester);
 
     assertThat(sensorContextTester.allIssues()).hasSize(2);
   }
 
+  @Test
+  public void should_raise_the_same_issues_in_parallel() throws Exception {
+    List<String> sequential = issuesWithThreads(1);
+    List<String> parallel = issuesWithThreads(4);
+
+    assertThat(sequential).hasSize(16);
+    assertThat(parallel).isEqualTo(sequential);
+  }
+
+  @Test
+  public void should_apply_stateful_rules_to_one_file_at_a_time() throws IOException {
+    settings.setProperty("sonar.groovy.threads", 4);
+    for (int file = 0; file < 8; file++) {
+      addFileWithContent("src/sample" + file + ".groovy", "class A" + file + " {\n}\n");
+    }
+    sensorContextTester.setActiveRules(
+        new ActiveRulesBuilderWrapper().addRule(ConcurrencyTrackingRule.class.getName()).build());
+    ConcurrencyTrackingRule.reset();
+
+    CodeNarcSensor sensor =
+        sensor(
+            new CodeNarcRuleSetCache(
+                Collections.singleton(ConcurrencyTrackingRule.class.getName())));
+    sensor.execute(sensorContextTester);
+
+    assertThat(ConcurrencyTrackingRule.APPLIED.get()).isEqualTo(8);
+    assertThat(ConcurrencyTrackingRule.MAX_RUNNING.get()).isEqualTo(1);
+  }
+
+  /**
+   * Runs CodeNarc on several files and returns its issues, in the order they are saved. Each run
+   * starts from a new context and new caches.
+   */
+  private List<String> issuesWithThreads(int threads) throws Exception {
+    setUp();
+    settings.setProperty("sonar.groovy.threads", threads);
+    for (int file = 0; file < 8; file++) {
+      addFileWithContent(
+          "src/sample" + file + ".groovy",
+          "class A" + file + " {\n  void a() {\n  }\n}\nclass B" + file + " {\n}\n");
+    }
+    ActiveRulesBuilderWrapper activeRulesBuilder =
+        new ActiveRulesBuilderWrapper()
+            .addRule("org.codenarc.rule.basic.EmptyClassRule")
+            .setInternalKey("EmptyClass")
+            .addRule("org.codenarc.rule.basic.EmptyMethodRule")
+            .setInternalKey("EmptyMethod");
+    sensorContextTester.setActiveRules(activeRulesBuilder.build());
+
+    CodeNarcSensor sensor = sensor();
+    sensor.execute(sensorContextTester);
+
+    return sensorContextTester.allIssues().stream()
+        .map(
+            issue ->
+                issue.primaryLocation().inputComponent()
+                    + ":"
+                    + issue.primaryLocation().textRange().start().line()
+                    + ":"
+                    + issue.ruleKey().rule())
+        .collect(Collectors.toList());
+  }
+
+  private CodeNarcSensor sensor() {
+    return sensor(new CodeNarcRuleSetCache());
+  }
+
+  private CodeNarcSensor sensor(CodeNarcRuleSetCache ruleSetCache) {
+    return new CodeNarcSensor(
+        sensorContextTester.activeRules(),
+        new GroovyFileSystem(sensorContextTester.fileSystem()),
+        sourceCache,
+        astProvider,
+        new GroovyAnalysisTiers(settings.asConfig(), sourceCache),
+        ruleSetCache);
+  }
+
   private Path getReportWithUpdatedSourceDir() throws IOException {
     Path reportUpdated = temp.newFile().toPath();
     String newSourceDir =
@@ -257,4 +351,30 @@ public class CodeNarcSensorTest {
             .build();
     sensorContextTester.fileSystem().add(inputFile);
   }
+
+  /** A rule listed as stateful, recording how many threads apply it at the same time. */
+  public static class ConcurrencyTrackingRule extends CodeNarcRuleSetCacheTest.StatefulRule {
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final AtomicInteger MAX_RUNNING = new AtomicInteger();
+    private static final AtomicInteger APPLIED = new AtomicInteger();
+
+    private static void reset() {
+      RUNNING.set(0);
+      MAX_RUNNING.set(0);
+      APPLIED.set(0);
+    }
+
+    @Override
+    public List<Violation> applyTo(SourceCode sourceCode) {
+      MAX_RUNNING.accumulateAndGet(RUNNING.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      APPLIED.incrementAndGet();
+      RUNNING.decrementAndGet();
+      return super.applyTo(sourceCode);
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.codenarc.rule.Rule;
+import org.codenarc.ruleset.ListRuleSet;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.InputFile.Type;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.plugins.groovy.GroovyAnalysisTiers;
+import org.sonar.plugins.groovy.foundation.Groovy;
+import org.sonar.plugins.groovy.foundation.GroovyAstProvider;
+import org.sonar.plugins.groovy.foundation.GroovySourceCache;
+import org.sonar.plugins.groovy.utils.FileWatchdog;
+
+public class CodeNarcSourceAnalyzerTest {
+
+  /**
+   * Keeps the file it is applied to in a property, which Groovy gives a setter, and counts the
+   * files during which another thread replaced it.
+   */
+  private static final String STATEFUL_GROOVY_RULE =
+      "import org.codenarc.rule.AbstractRule\n"
+          + "import org.codenarc.rule.Violation\n"
+          + "import org.codenarc.source.SourceCode\n"
+          + "class StatefulGroovyRule extends AbstractRule {\n"
+          + "  String name = 'StatefulGroovy'\n"
+          + "  int priority = 2\n"
+          + "  SourceCode currentFile\n"
+          + "  int appliedFiles\n"
+          + "  int interleavedFiles\n"
+          + "  void applyTo(SourceCode sourceCode, List<Violation> violations) {\n"
+          + "    currentFile = sourceCode\n"
+          + "    sleep(20)\n"
+          + "    if (!currentFile.is(sourceCode)) {\n"
+          + "      interleavedFiles++\n"
+          + "    }\n"
+          + "    appliedFiles++\n"
+          + "  }\n"
+          + "}\n";
+
+  @Test
+  public void should_apply_listed_groovy_rules_to_one_file_at_a_time() throws Exception {
+    Rule rule;
+    try (GroovyClassLoader classLoader = new GroovyClassLoader(getClass().getClassLoader())) {
+      rule =
+          (Rule)
+              classLoader.parseClass(STATEFUL_GROOVY_RULE).getDeclaredConstructor().newInstance();
+    }
+    CodeNarcRuleSetCache ruleSetCache =
+        new CodeNarcRuleSetCache(Collections.singleton(rule.getClass().getName()));
+
+    analyze(rule, ruleSetCache);
+
+    GroovyObject state = (GroovyObject) rule;
+    assertThat(state.getProperty("appliedFiles")).isEqualTo(8);
+    assertThat(state.getProperty("interleavedFiles")).isEqualTo(0);
+  }
+
+  private static void analyze(Rule rule, CodeNarcRuleSetCache ruleSetCache) {
+    List<InputFile> files = new ArrayList<>();
+    for (int file = 0; file < 8; file++) {
+      files.add(
+          TestInputFileBuilder.create("module", "src/sample" + file + ".groovy")
+              .setLanguage(Groovy.KEY)
+              .setType(Type.MAIN)
+              .setContents("class A" + file + " {\n}\n")
+              .build());
+    }
+    Configuration config = new MapSettings().asConfig();
+    GroovySourceCache sourceCache = new GroovySourceCache(config);
+    try (FileWatchdog watchdog = FileWatchdog.create(config)) {
+      new CodeNarcSourceAnalyzer(
+              files,
+              sourceCache,
+              new GroovyAstProvider(config, sourceCache),
+              new GroovyAnalysisTiers(config, sourceCache),
+              watchdog,
+              4,
+              null,
+              false,
+              ruleSetCache::isStateful)
+          .analyze(new ListRuleSet(Collections.singletonList(rule)), (inputFile, violations) -> {});
+    }
+  }
+}
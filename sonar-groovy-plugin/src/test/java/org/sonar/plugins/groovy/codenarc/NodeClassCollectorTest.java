@@ -0,0 +1,75 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.TernaryExpression;
+import org.codehaus.groovy.ast.stmt.IfStatement;
+import org.codehaus.groovy.ast.stmt.SwitchStatement;
+import org.codenarc.source.SourceString;
+import org.junit.Test;
+
+public class NodeClassCollectorTest {
+
+  private static final String SOURCE =
+      "@Deprecated\n"
+          + "class Controller {\n"
+          + "  def index(boolean full = params.full ? true : false) {\n"
+          + "    if (params.id) {\n"
+          + "      render(view: 'show', model: load(params.id))\n"
+          + "    }\n"
+          + "  }\n"
+          + "}\n";
+
+  @Test
+  public void collect_classes_of_nested_nodes() {
+    assertThat(classesOf(SOURCE))
+        .contains(
+            ModuleNode.class,
+            ClassNode.class,
+            AnnotationNode.class,
+            MethodNode.class,
+            IfStatement.class,
+            MethodCallExpression.class,
+            ArgumentListExpression.class,
+            PropertyExpression.class)
+        .doesNotContain(SwitchStatement.class, ClosureExpression.class);
+  }
+
+  @Test
+  public void collect_classes_of_default_values_of_parameters() {
+    assertThat(classesOf(SOURCE)).contains(TernaryExpression.class);
+    assertThat(classesOf("class A { def a(b = 1) { b } }")).doesNotContain(TernaryExpression.class);
+  }
+
+  private static Set<Class<?>> classesOf(String source) {
+    return NodeClassCollector.classesOf(new SourceString(source).getAst());
+  }
+}
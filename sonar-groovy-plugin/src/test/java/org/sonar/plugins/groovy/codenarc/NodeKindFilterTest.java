@@ -0,0 +1,184 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.codenarc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.PackageNode;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.stmt.SwitchStatement;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codenarc.rule.AbstractAstVisitorRule;
+import org.codenarc.rule.AstVisitor;
+import org.codenarc.rule.Rule;
+import org.codenarc.rule.Violation;
+import org.codenarc.source.SourceCode;
+import org.codenarc.source.SourceString;
+import org.junit.Test;
+
+public class NodeKindFilterTest {
+
+  private static final String WITHOUT_SWITCH = "class A { def a() { def b = 1 } }";
+  private static final String WITH_SWITCH = "class A { def a(b) { switch (b) { case 1: break } } }";
+
+  @Test
+  public void node_types_are_the_parameters_of_the_visit_methods_of_the_visitor() {
+    assertThat(NodeKindFilter.nodeTypesOf(new SwitchRule()))
+        .containsExactly(SwitchStatement.class);
+    assertThat(NodeKindFilter.nodeTypesOf(new BinaryRule()))
+        .containsExactly(BinaryExpression.class);
+  }
+
+  @Test
+  public void skip_rules_on_files_without_the_nodes_they_visit() {
+    Rule rule = new SwitchRule();
+    NodeKindFilter filter = new NodeKindFilter(Arrays.asList(rule));
+
+    assertThat(filter.skips(rule, kinds(filter, WITHOUT_SWITCH))).isTrue();
+    assertThat(filter.skips(rule, kinds(filter, WITH_SWITCH))).isFalse();
+  }
+
+  @Test
+  public void do_not_skip_rules_on_files_with_subtypes_of_the_nodes_they_visit() {
+    // "def b = 1" is a DeclarationExpression, visited through visitBinaryExpression
+    Rule rule = new BinaryRule();
+    NodeKindFilter filter = new NodeKindFilter(Arrays.asList(rule));
+
+    assertThat(filter.skips(rule, kinds(filter, WITHOUT_SWITCH))).isFalse();
+  }
+
+  @Test
+  public void always_apply_rules_whose_node_types_are_unknown() {
+    assertThat(NodeKindFilter.nodeTypesOf(new PackageRule())).isNull();
+    assertThat(NodeKindFilter.nodeTypesOf(new CustomApplyRule())).isNull();
+    assertThat(NodeKindFilter.nodeTypesOf(new CodeNarcRuleSetCacheTest.StatelessRule())).isNull();
+    assertThat(new NodeKindFilter(Arrays.asList(new PackageRule())).isEmpty()).isTrue();
+  }
+
+  private static BitSet kinds(NodeKindFilter filter, String source) {
+    ModuleNode ast = new SourceString(source).getAst();
+    return filter.kindsOf(ast);
+  }
+
+  public static class SwitchRule extends TestRule {
+    @Override
+    public AstVisitor getAstVisitor() {
+      return new SwitchVisitor();
+    }
+  }
+
+  public static class BinaryRule extends TestRule {
+    @Override
+    public AstVisitor getAstVisitor() {
+      return new BinaryVisitor();
+    }
+  }
+
+  public static class PackageRule extends TestRule {
+    @Override
+    public AstVisitor getAstVisitor() {
+      return new PackageVisitor();
+    }
+  }
+
+  public static class CustomApplyRule extends SwitchRule {
+    @Override
+    public void applyTo(SourceCode sourceCode, List<Violation> violations) {
+      super.applyTo(sourceCode, violations);
+    }
+  }
+
+  public abstract static class TestRule extends AbstractAstVisitorRule {
+    private String name = getClass().getSimpleName();
+    private int priority = 2;
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+
+    @Override
+    public void setPriority(int priority) {
+      this.priority = priority;
+    }
+  }
+
+  public static class SwitchVisitor extends TestVisitor {
+    @Override
+    public void visitSwitch(SwitchStatement statement) {
+      super.visitSwitch(statement);
+    }
+  }
+
+  public static class BinaryVisitor extends TestVisitor {
+    @Override
+    public void visitBinaryExpression(BinaryExpression expression) {
+      super.visitBinaryExpression(expression);
+    }
+  }
+
+  public static class PackageVisitor extends TestVisitor {
+    @Override
+    public void visitPackage(PackageNode node) {
+      super.visitPackage(node);
+    }
+  }
+
+  /** Visitor without any visit method of its own. */
+  public abstract static class TestVisitor extends ClassCodeVisitorSupport implements AstVisitor {
+    private final List<Violation> violations = new ArrayList<>();
+
+    @Override
+    protected SourceUnit getSourceUnit() {
+      return null;
+    }
+
+    @Override
+    public void setRule(Rule rule) {
+      // not needed
+    }
+
+    @Override
+    public void setSourceCode(SourceCode sourceCode) {
+      // not needed
+    }
+
+    @Override
+    public List<Violation> getViolations() {
+      return violations;
+    }
+  }
+}
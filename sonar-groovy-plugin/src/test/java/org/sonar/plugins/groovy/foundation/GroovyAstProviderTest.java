@@ -0,0 +1,166 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.control.Phases;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.config.internal.MapSettings;
+
+public class GroovyAstProviderTest {
+
+  private final MapSettings settings = new MapSettings();
+  private final GroovySourceCache sourceCache = new GroovySourceCache(settings.asConfig());
+
+  @Test
+  public void compile_each_file_once_per_phase() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("first");
+    provider.register("second");
+    InputFile file = file("a.groovy", "class A { def a() {} }");
+
+    ModuleNode ast = provider.get(file, Phases.CONVERSION);
+
+    assertThat(ast.getClasses()).extracting("name").containsOnly("A");
+    assertThat(provider.get(file, Phases.CONVERSION)).isSameAs(ast);
+    assertThat(provider.get(file, Phases.SEMANTIC_ANALYSIS)).isNotNull().isNotSameAs(ast);
+    assertThat(provider.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void drop_files_released_by_every_consumer() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("first");
+    provider.register("second");
+    InputFile released = file("a.groovy", "class A {}");
+    InputFile pending = file("b.groovy", "class B {}");
+    ModuleNode ast = provider.get(released, Phases.CONVERSION);
+    provider.get(pending, Phases.CONVERSION);
+
+    provider.release(released, "first");
+    assertThat(provider.get(released, Phases.CONVERSION)).isSameAs(ast);
+    provider.release(released, "second");
+    assertThat(provider.size()).isEqualTo(1);
+
+    provider.finish("first");
+    provider.finish("second");
+    assertThat(provider.size()).isZero();
+  }
+
+  @Test
+  public void stay_bounded_when_many_files_are_analyzed() throws IOException {
+    settings.setProperty(GroovyAstProvider.MAX_FILES_KEY, 100);
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("first");
+    provider.register("second");
+    List<InputFile> files = new ArrayList<>();
+    for (int i = 0; i < 1500; i++) {
+      files.add(file("file" + i + ".groovy", "class A" + i + " {}"));
+    }
+
+    // Consumers walk the files one after the other, in the same order, as the sensors do
+    int maxSize = 0;
+    for (String consumer : Arrays.asList("first", "second")) {
+      for (InputFile file : files) {
+        assertThat(provider.get(file, Phases.CONVERSION)).isNotNull();
+        maxSize = Math.max(maxSize, provider.size());
+        provider.release(file, consumer);
+      }
+      provider.finish(consumer);
+    }
+
+    assertThat(maxSize).isEqualTo(100);
+    // The first 100 files are compiled once, the others once per consumer
+    assertThat(provider.compilations()).isEqualTo(100 + 2 * 1400);
+    assertThat(provider.size()).isZero();
+  }
+
+  @Test
+  public void compile_again_files_not_kept_above_max_files() throws IOException {
+    settings.setProperty(GroovyAstProvider.MAX_FILES_KEY, 1);
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("consumer");
+    InputFile kept = file("a.groovy", "class A {}");
+    InputFile notKept = file("b.groovy", "class B {}");
+    ModuleNode ast = provider.get(kept, Phases.CONVERSION);
+
+    assertThat(provider.get(notKept, Phases.CONVERSION))
+        .isNotNull()
+        .isNotSameAs(provider.get(notKept, Phases.CONVERSION));
+    assertThat(provider.get(kept, Phases.CONVERSION)).isSameAs(ast);
+    assertThat(provider.compilations()).isEqualTo(3);
+    assertThat(provider.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void do_not_keep_asts_without_consumer() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    InputFile file = file("a.groovy", "class A {}");
+
+    assertThat(provider.get(file, Phases.CONVERSION))
+        .isNotSameAs(provider.get(file, Phases.CONVERSION));
+    assertThat(provider.size()).isZero();
+  }
+
+  @Test
+  public void compile_script_declaring_class_named_after_file() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("consumer");
+    InputFile file = file("Foo.groovy", "class Foo {}\nprintln new Foo()\n");
+
+    ModuleNode ast = provider.get(file, Phases.CONVERSION);
+
+    assertThat(ast).isNotNull();
+    assertThat(ast.getClasses()).extracting("name").contains("Foo");
+  }
+
+  @Test
+  public void no_ast_for_file_not_compiling() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("consumer");
+
+    assertThat(provider.get(file("a.groovy", "class A {"), Phases.CONVERSION)).isNull();
+  }
+
+  @Test
+  public void do_not_compile_later_phases_of_file_not_compiling() throws IOException {
+    GroovyAstProvider provider = new GroovyAstProvider(settings.asConfig(), sourceCache);
+    provider.register("consumer");
+    InputFile file = file("a.groovy", "class A {");
+
+    assertThat(provider.get(file, Phases.CONVERSION)).isNull();
+    assertThat(provider.get(file, Phases.SEMANTIC_ANALYSIS)).isNull();
+    assertThat(provider.compilations()).isEqualTo(1);
+  }
+
+  private static InputFile file(String path, String contents) {
+    return TestInputFileBuilder.create("", path)
+        .setLanguage(Groovy.KEY)
+        .setContents(contents)
+        .build();
+  }
+}
@@ -30,10 +30,15 @@ import org.sonar.api.batch.fs.InputFile.Type;
 import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
 import org.sonar.api.batch.sensor.highlighting.TypeOfText;
 import org.sonar.api.batch.sensor.internal.SensorContextTester;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.internal.SonarRuntimeImpl;
+import org.sonar.api.utils.Version;
 import org.sonar.plugins.groovy.TestUtils;
 
 public class GroovyHighlighterAndTokenizerTest {
 
+  private final GroovySourceCache sourceCache = new GroovySourceCache(new MapSettings().asConfig());
+
   @Test
   public void should_highlight_keywords() throws Exception {
     File file = TestUtils.getResource("/org/sonar/plugins/groovy/foundation/Greet.groovy");
@@ -47,7 +52,8 @@ public class GroovyHighlighterAndTokenizerTest {
             .build();
     context.fileSystem().add(inputFile);
 
-    GroovyHighlighterAndTokenizer highlighter = new GroovyHighlighterAndTokenizer(inputFile);
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache);
     context = Mockito.spy(context);
     highlighter.processFile(context);
 
@@ -74,6 +80,60 @@ public class GroovyHighlighterAndTokenizerTest {
     Mockito.verify(context, Mockito.times(1)).newHighlighting();
   }
 
+  @Test
+  public void should_reduce_cpd_tokens() throws Exception {
+    SensorContextTester context = SensorContextTester.create(new File("."));
+    InputFile inputFile =
+        TestInputFileBuilder.create("", "Reduced.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.MAIN)
+            .setContents(
+                "package a.b\n"
+                    + "import java.util.List; import x.Y as Z\n"
+                    + "import static a.B.*\n"
+                    + "class A { def s = \"x${a + \"q$r\"}y$b\"; int i = 42 }\n")
+            .build();
+    context.fileSystem().add(inputFile);
+
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache, true);
+    highlighter.processFile(context);
+
+    assertThat(context.cpdTokens(":Reduced.groovy"))
+        .extracting("value")
+        .containsExactly("classA{defs=LITERAL;inti=LITERAL}");
+    assertThat(highlighter.savedCpdTokenCount()).isEqualTo(13);
+    assertThat(highlighter.cpdTokenCount()).isGreaterThan(30);
+  }
+
+  @Test
+  public void should_highlight_again_in_sonarlint() throws Exception {
+    File file = TestUtils.getResource("/org/sonar/plugins/groovy/foundation/Greet.groovy");
+    String contents = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+
+    for (String source : new String[] {contents, "\n" + contents}) {
+      SensorContextTester context = SensorContextTester.create(file.getParentFile());
+      context.setRuntime(SonarRuntimeImpl.forSonarLint(Version.create(8, 0)));
+      InputFile inputFile =
+          TestInputFileBuilder.create("", file.getParentFile(), file)
+              .setLanguage(Groovy.KEY)
+              .setType(Type.MAIN)
+              .setContents(source)
+              .build();
+      context.fileSystem().add(inputFile);
+
+      new GroovyHighlighterAndTokenizer(inputFile, sourceCache).processFile(context);
+
+      int line = source == contents ? 4 : 5;
+      assertThat(context.highlightingTypeAt(":Greet.groovy", line, 2))
+          .containsOnly(TypeOfText.KEYWORD);
+      assertThat(context.highlightingTypeAt(":Greet.groovy", line, 25))
+          .containsOnly(TypeOfText.STRING);
+      assertThat(context.highlightingTypeAt(":Greet.groovy", line + 6, 0))
+          .containsOnly(TypeOfText.ANNOTATION);
+    }
+  }
+
   @Test
   public void should_tokenize_for_cpd() throws Exception {
     File file = TestUtils.getResource("/org/sonar/plugins/groovy/foundation/Greet.groovy");
@@ -87,7 +147,8 @@ public class GroovyHighlighterAndTokenizerTest {
             .build();
     context.fileSystem().add(inputFile);
 
-    GroovyHighlighterAndTokenizer highlighter = new GroovyHighlighterAndTokenizer(inputFile);
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache);
     context = Mockito.spy(context);
     highlighter.processFile(context);
 
@@ -119,7 +180,8 @@ public class GroovyHighlighterAndTokenizerTest {
             .build();
     context.fileSystem().add(inputFile);
 
-    GroovyHighlighterAndTokenizer highlighter = new GroovyHighlighterAndTokenizer(inputFile);
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache);
 
     context = Mockito.spy(context);
     highlighter.processFile(context);
@@ -140,7 +202,8 @@ public class GroovyHighlighterAndTokenizerTest {
             .build();
     context.fileSystem().add(inputFile);
 
-    GroovyHighlighterAndTokenizer highlighter = new GroovyHighlighterAndTokenizer(inputFile);
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache);
 
     context = Mockito.spy(context);
     highlighter.processFile(context);
@@ -150,4 +213,29 @@ public class GroovyHighlighterAndTokenizerTest {
     assertThat(context.highlightingTypeAt(":Error.groovy", 3, 2)).isEmpty();
     Mockito.verify(context, Mockito.times(1)).newHighlighting();
   }
+
+  @Test
+  public void should_merge_adjacent_ranges_of_the_same_type() throws Exception {
+    SensorContextTester context = SensorContextTester.create(new File("."));
+    InputFile inputFile =
+        TestInputFileBuilder.create("", "Merged.groovy")
+            .setLanguage(Groovy.KEY)
+            .setType(Type.MAIN)
+            .setContents("@groovy.beans.Bindable\nclass A { def s = \"x${a}y$b$c\" }\n")
+            .build();
+    context.fileSystem().add(inputFile);
+
+    GroovyHighlighterAndTokenizer highlighter =
+        new GroovyHighlighterAndTokenizer(inputFile, sourceCache);
+    highlighter.processFile(context);
+
+    assertThat(highlighter.savedRanges()).isEqualTo(10);
+    assertThat(highlighter.mergedRanges()).isEqualTo(1);
+    assertThat(context.highlightingTypeAt(":Merged.groovy", 1, 6))
+        .containsOnly(TypeOfText.ANNOTATION);
+    assertThat(context.highlightingTypeAt(":Merged.groovy", 1, 7)).containsOnly(TypeOfText.STRING);
+    assertThat(context.highlightingTypeAt(":Merged.groovy", 1, 21)).isEmpty();
+    assertThat(context.highlightingTypeAt(":Merged.groovy", 2, 18)).containsOnly(TypeOfText.STRING);
+    assertThat(context.highlightingTypeAt(":Merged.groovy", 2, 21)).isEmpty();
+  }
 }
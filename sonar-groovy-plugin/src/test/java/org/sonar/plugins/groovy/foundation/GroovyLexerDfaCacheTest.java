@@ -0,0 +1,60 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.Token;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.junit.Test;
+
+public class GroovyLexerDfaCacheTest {
+
+  private static final String SOURCE = "class A {\n  def s = \"a ${b}\" // comment\n}\n";
+
+  @Test
+  public void clear_cache_above_max_size() {
+    assertThat(lex(SOURCE)).isEqualTo(16);
+    int states = GroovyLexerDfaCache.size();
+    int clears = GroovyLexerDfaCache.clears();
+    assertThat(states).isPositive();
+
+    assertThat(GroovyLexerDfaCache.clearIfLargerThan(states)).isFalse();
+    assertThat(GroovyLexerDfaCache.size()).isEqualTo(states);
+    assertThat(GroovyLexerDfaCache.clears()).isEqualTo(clears);
+
+    assertThat(GroovyLexerDfaCache.clearIfLargerThan(states - 1)).isTrue();
+    assertThat(GroovyLexerDfaCache.size()).isZero();
+    assertThat(GroovyLexerDfaCache.clears()).isEqualTo(clears + 1);
+
+    // Lexing still works, and fills the cache again
+    assertThat(lex(SOURCE)).isEqualTo(16);
+    assertThat(GroovyLexerDfaCache.size()).isPositive();
+  }
+
+  private static int lex(String source) {
+    GroovyLangLexer lexer = new GroovyLangLexer(CharStreams.fromString(source));
+    int tokens = 0;
+    while (lexer.nextToken().getType() != Token.EOF) {
+      tokens++;
+    }
+    return tokens;
+  }
+}
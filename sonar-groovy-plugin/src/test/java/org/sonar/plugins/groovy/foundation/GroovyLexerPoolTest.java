@@ -0,0 +1,113 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.Token;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.apache.groovy.parser.antlr4.GroovySyntaxError;
+import org.junit.Test;
+
+public class GroovyLexerPoolTest {
+
+  private static final String[] SOURCES = {
+    "#!/usr/bin/env groovy\nprintln 'a'\n",
+    "def x = foo(1, [2, 3\n",
+    "class Error {\n  def name#\n}\n",
+    "#!/usr/bin/env groovy\nprintln 'b'\n",
+    "def s = \"a ${b} $c.d\"\nx = /re/\n",
+    "def y = 09\n"
+  };
+
+  @Test
+  public void reused_lexer_emits_the_same_tokens_as_a_new_lexer() {
+    for (String source : SOURCES) {
+      List<String> expected = tokens(new GroovyLangLexer(CharStreams.fromString(source)));
+
+      GroovyLexer lexer = GroovyLexerPool.acquire(CharStreams.fromString(source));
+      List<String> actual = tokens(lexer);
+      GroovyLexerPool.release(lexer);
+
+      assertThat(actual).as(source).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void reuse_released_lexer() {
+    GroovyLexer lexer = GroovyLexerPool.acquire(CharStreams.fromString("def a"));
+    GroovyLexerPool.release(lexer);
+
+    GroovyLexer reused = GroovyLexerPool.acquire(CharStreams.fromString("def b"));
+    assertThat(reused).isSameAs(lexer);
+    assertThat(reused.nextToken().getLine()).isEqualTo(1);
+
+    // A lexer which has not been released is not handed out twice
+    GroovyLexer other = GroovyLexerPool.acquire(CharStreams.fromString("def c"));
+    assertThat(other).isNotSameAs(reused);
+    assertThat(other.nextToken().getText()).isEqualTo("def");
+    GroovyLexerPool.release(other);
+    GroovyLexerPool.release(reused);
+  }
+
+  @Test
+  public void reuse_lexer_released_by_a_thread_which_is_gone() throws Exception {
+    AtomicReference<GroovyLexer> released = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              GroovyLexer lexer = GroovyLexerPool.acquire(CharStreams.fromString("def a"));
+              GroovyLexerPool.release(lexer);
+              released.set(lexer);
+            });
+    thread.start();
+    thread.join();
+
+    GroovyLexer lexer = GroovyLexerPool.acquire(CharStreams.fromString("def b"));
+    assertThat(lexer).isSameAs(released.get());
+    assertThat(lexer.nextToken().getText()).isEqualTo("def");
+    GroovyLexerPool.release(lexer);
+  }
+
+  private static List<String> tokens(GroovyLexer lexer) {
+    List<String> tokens = new ArrayList<>();
+    try {
+      for (Token token = lexer.nextToken();
+          token.getType() != Token.EOF;
+          token = lexer.nextToken()) {
+        tokens.add(
+            token.getType()
+                + ":"
+                + token.getLine()
+                + ":"
+                + token.getCharPositionInLine()
+                + ":"
+                + token.getText());
+      }
+    } catch (GroovySyntaxError e) {
+      tokens.add("error at " + e.getLine() + ":" + e.getColumn());
+    }
+    return tokens;
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.config.internal.MapSettings;
+
+public class GroovySourceCacheTest {
+
+  private final MapSettings settings = new MapSettings();
+
+  @Test
+  public void decode_each_file_once() throws IOException {
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    cache.register("consumer");
+    InputFile file = file("a.groovy", "class A {}\n");
+
+    GroovySource source = cache.get(file);
+
+    assertThat(source).hasToString("class A {}\n");
+    assertThat(cache.get(file)).isSameAs(source);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void keep_sources_until_every_consumer_released_them() throws IOException {
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    cache.register("first");
+    cache.register("second");
+    InputFile released = file("a.groovy", "class A {}");
+    InputFile finished = file("b.groovy", "class B {}");
+    GroovySource source = cache.get(released);
+    cache.get(finished);
+
+    cache.release(released, "first");
+    assertThat(cache.get(released)).isSameAs(source);
+    cache.release(released, "second");
+    assertThat(cache.size()).isEqualTo(1);
+
+    cache.finish("first");
+    cache.finish("second");
+    assertThat(cache.size()).isZero();
+    assertThat(cache.get(released)).isNotSameAs(source);
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void keep_every_file_below_max_size() throws IOException {
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    cache.register("consumer");
+    List<InputFile> files = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      files.add(file("file" + i + ".groovy", "class A" + i + " {}"));
+    }
+    List<GroovySource> sources = new ArrayList<>();
+    for (InputFile file : files) {
+      sources.add(cache.get(file));
+    }
+
+    for (int i = 0; i < files.size(); i++) {
+      assertThat(cache.get(files.get(i))).isSameAs(sources.get(i));
+    }
+  }
+
+  @Test
+  public void do_not_keep_sources_above_max_size() throws IOException {
+    settings.setProperty(GroovySourceCache.MAX_SIZE_KEY, 1);
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    cache.register("consumer");
+    // 1 MB holds 524288 characters
+    InputFile first = file("first.groovy", StringUtils.repeat("a", 200_000));
+    InputFile second = file("second.groovy", StringUtils.repeat("b", 200_000));
+    InputFile third = file("third.groovy", StringUtils.repeat("c", 200_000));
+
+    GroovySource firstSource = cache.get(first);
+    GroovySource secondSource = cache.get(second);
+    GroovySource thirdSource = cache.get(third);
+
+    // Kept sources are not evicted for later ones
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get(first)).isSameAs(firstSource);
+    assertThat(cache.get(second)).isSameAs(secondSource);
+    assertThat(cache.get(third)).isNotSameAs(thirdSource);
+
+    cache.release(first, "consumer");
+    thirdSource = cache.get(third);
+    assertThat(cache.get(third)).isSameAs(thirdSource);
+  }
+
+  @Test
+  public void reuse_sources_kept_first_when_full() throws IOException {
+    settings.setProperty(GroovySourceCache.MAX_SIZE_KEY, 1);
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    cache.register("first");
+    cache.register("second");
+    // 1 MB holds 10 sources of 50000 characters
+    List<InputFile> files = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      files.add(file("file" + i + ".groovy", StringUtils.repeat("a", 50_000)));
+    }
+
+    // Consumers walk the files one after the other, in the same order, as the sensors do
+    List<GroovySource> firstSources = new ArrayList<>();
+    int maxSize = 0;
+    for (InputFile file : files) {
+      firstSources.add(cache.get(file));
+      maxSize = Math.max(maxSize, cache.size());
+      cache.release(file, "first");
+    }
+    cache.finish("first");
+    for (int i = 0; i < files.size(); i++) {
+      GroovySource source = cache.get(files.get(i));
+      if (i < 10) {
+        assertThat(source).isSameAs(firstSources.get(i));
+      } else {
+        assertThat(source).isNotSameAs(firstSources.get(i));
+      }
+      cache.release(files.get(i), "second");
+    }
+    cache.finish("second");
+
+    assertThat(maxSize).isEqualTo(10);
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void do_not_keep_sources_without_consumer() throws IOException {
+    GroovySourceCache cache = new GroovySourceCache(settings.asConfig());
+    InputFile file = file("a.groovy", "class A {}");
+
+    assertThat(cache.get(file)).isNotSameAs(cache.get(file));
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void compute_line_offsets() {
+    GroovySource source = new GroovySource("class A {\r\n  def a\r\r\n}\n");
+
+    assertThat(source.lines()).isEqualTo(5);
+    assertThat(source.lineStart(2)).isEqualTo(11);
+    assertThat(source.line(1)).hasToString("class A {");
+    assertThat(source.line(2)).hasToString("  def a");
+    assertThat(source.line(3)).hasToString("");
+    assertThat(source.line(4)).hasToString("}");
+    assertThat(source.line(5)).hasToString("");
+  }
+
+  private static InputFile file(String path, String contents) {
+    return TestInputFileBuilder.create("", path)
+        .setLanguage(Groovy.KEY)
+        .setContents(contents)
+        .build();
+  }
+}
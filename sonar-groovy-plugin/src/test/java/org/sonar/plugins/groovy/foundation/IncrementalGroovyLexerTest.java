@@ -0,0 +1,150 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2025 SonarQube Community
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.foundation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovyjarjarantlr4.v4.runtime.CharStreams;
+import groovyjarjarantlr4.v4.runtime.Token;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.groovy.parser.antlr4.GroovyLangLexer;
+import org.apache.groovy.parser.antlr4.GroovyLexer;
+import org.junit.After;
+import org.junit.Test;
+
+public class IncrementalGroovyLexerTest {
+
+  private static final String SOURCE =
+      "def a = 1\n"
+          + "def s = \"\"\"first\n"
+          + "  ${a + 1} second\n"
+          + "  $a.b third\n"
+          + "\"\"\"\n"
+          + "def g = \"x ${a} y\" // c\n"
+          + "/* multi\n"
+          + " line */ def r = /slashy\n"
+          + "regex/\n"
+          + "def t = '''triple\n"
+          + "  single'''\n"
+          + "def d = $/dollar\n"
+          + "  $$ slashy\n"
+          + "/$\n"
+          + "foo(1,\n"
+          + "  2)\n";
+
+  @After
+  public void forgetSources() {
+    IncrementalGroovyLexer.clear();
+  }
+
+  @Test
+  public void lexes_like_a_new_lexer_after_edits() {
+    String[][] edits = {
+      // inside a triple-quoted GString
+      {"  ${a + 1} second\n", "  ${a + 1} second, edited\n"},
+      // closing the triple-quoted GString earlier
+      {"  $a.b third\n\"\"\"\n", "\"\"\"\n  $a.b third\n"},
+      // opening a multi-line comment which is closed later on
+      {"def g", "/* def g"},
+      {"/* def g", "def g"},
+      // inside parentheses
+      {"foo(1,\n", "foo(1, 3,\n"},
+      // adding and removing lines
+      {"def t = '''triple\n", "x = 1\ny = 2\ndef t = '''triple\n"},
+      {"x = 1\ny = 2\n", ""},
+      {"def a = 1\n", ""},
+      {"regex/\n", "regex/ + 'end'\n"},
+      // supplementary characters, counted as one by the lexer, then an edit inside one of them
+      {"x ${a} y", "x \uD83D\uDE00 ${a} y"},
+      {"\uD83D\uDE00", "\uD83D\uDE01"},
+    };
+    String source = SOURCE;
+    lex(source);
+    for (String[] edit : edits) {
+      assertThat(source).contains(edit[0]);
+      source = source.replace(edit[0], edit[1]);
+
+      assertThat(lex(source)).as(source).isEqualTo(lexFromScratch(source));
+    }
+  }
+
+  @Test
+  public void relexes_only_around_the_edit() {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      source.append(String.format("def s%d = \"\"\"line\n  ${x%d}\n\"\"\"\n", i, i));
+    }
+    String before = source.toString();
+    String after = before.replace("${x1000}", "${x1000 + y}");
+
+    assertThat(IncrementalGroovyLexer.lex("file", before, "file", token -> {}))
+        .isGreaterThan(10_000);
+    List<Token> tokens = new ArrayList<>();
+    int lexed = IncrementalGroovyLexer.lex("file", after, "file", tokens::add);
+
+    assertThat(lexed).isLessThan(20);
+    assertThat(descriptions(tokens)).isEqualTo(lexFromScratch(after));
+  }
+
+  @Test
+  public void lexes_everything_again_for_another_file() {
+    IncrementalGroovyLexer.lex("a", SOURCE, "a", token -> {});
+
+    int lexed = IncrementalGroovyLexer.lex("b", SOURCE, "b", token -> {});
+
+    assertThat(lexed).isEqualTo(lexFromScratch(SOURCE).size());
+  }
+
+  private static List<String> lex(String source) {
+    List<Token> tokens = new ArrayList<>();
+    IncrementalGroovyLexer.lex("file", source, "file", tokens::add);
+    return descriptions(tokens);
+  }
+
+  private static List<String> lexFromScratch(String source) {
+    List<Token> tokens = new ArrayList<>();
+    GroovyLexer lexer = new GroovyLangLexer(CharStreams.fromString(source));
+    for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+      tokens.add(token);
+    }
+    return descriptions(tokens);
+  }
+
+  private static List<String> descriptions(List<Token> tokens) {
+    List<String> descriptions = new ArrayList<>();
+    for (Token token : tokens) {
+      descriptions.add(
+          token.getType()
+              + ":"
+              + token.getLine()
+              + ":"
+              + token.getCharPositionInLine()
+              + ":"
+              + token.getStartIndex()
+              + ":"
+              + token.getStopIndex()
+              + ":"
+              + token.getChannel()
+              + ":"
+              + token.getText());
+    }
+    return descriptions;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Sonar Groovy Plugin
+ * Copyright (C) 2010-2021 SonarQube Community
+ *  
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.groovy.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class FileWatchdogTest {
+
+  @Test
+  public void run_on_the_calling_thread_without_budget() {
+    try (FileWatchdog watchdog = new FileWatchdog(0)) {
+      Thread caller = Thread.currentThread();
+
+      assertThat(watchdog.hasBudget()).isFalse();
+      assertThat(watchdog.run("Test", "a.groovy", Thread::currentThread)).contains(caller);
+    }
+  }
+
+  @Test
+  public void skip_files_exceeding_the_budget() {
+    try (FileWatchdog watchdog = new FileWatchdog(50)) {
+      Optional<String> result =
+          watchdog.run(
+              "Test",
+              "slow.groovy",
+              () -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                  Thread.yield();
+                }
+                return "interrupted";
+              });
+
+      assertThat(result).isEmpty();
+      assertThat(watchdog.skipped()).containsOnlyKeys("Test of slow.groovy");
+      assertThat(watchdog.skipped().get("Test of slow.groovy")).isGreaterThanOrEqualTo(50);
+      assertThat(watchdog.run("Test", "fast.groovy", () -> "done")).contains("done");
+      assertThat(watchdog.skipped()).hasSize(1);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void count_abandoned_tasks_until_they_end() throws InterruptedException {
+    AtomicBoolean ignoringInterruption = new AtomicBoolean(true);
+    awaitNoAbandonedTasks();
+    try (FileWatchdog watchdog = new FileWatchdog(50)) {
+      Optional<String> result =
+          watchdog.run(
+              "Test",
+              "stuck.groovy",
+              () -> {
+                while (ignoringInterruption.get()) {
+                  Thread.yield();
+                }
+                return "ended";
+              });
+
+      assertThat(result).isEmpty();
+      assertThat(FileWatchdog.abandonedTasks()).isEqualTo(1);
+      ignoringInterruption.set(false);
+      awaitNoAbandonedTasks();
+    }
+  }
+
+  @Test
+  public void rethrow_failures() {
+    try (FileWatchdog watchdog = new FileWatchdog(10_000)) {
+      assertThatThrownBy(
+              () ->
+                  watchdog.run(
+                      "Test",
+                      "a.groovy",
+                      () -> {
+                        throw new IllegalArgumentException("boom");
+                      }))
+          .isInstanceOf(IllegalArgumentException.class)
+          .hasMessage("boom");
+    }
+  }
+
+  private static void awaitNoAbandonedTasks() throws InterruptedException {
+    while (FileWatchdog.abandonedTasks() > 0) {
+      Thread.sleep(10);
+    }
+  }
+}
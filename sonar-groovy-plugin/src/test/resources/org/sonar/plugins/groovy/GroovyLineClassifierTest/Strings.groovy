@@ -0,0 +1,58 @@
+#!/usr/bin/env groovy
+/*
+ * Header comment
+ */
+package org.example
+
+import groovy.transform.CompileStatic
+
+/**
+ * Strings of all kinds, and what looks like comments or divisions inside them.
+ */
+@CompileStatic
+class Strings {
+
+  def plain = 'single // quoted'
+  def escaped = 'it\'s /* not */ a comment'
+  def multiLine = '''first
+  second // still the string
+  '''
+  def quoted = "double /* quoted */"
+  def gstring = "Hello ${name.toUpperCase()}, ${ [1, 2].collect { it * 2 } }!"
+  def path = "$name.length chars"
+  def nested = "outer ${ "inner ${ 'deep' }" } outer"
+  def tripleGString = """
+    ${
+      name
+    }
+    $path
+    plain line
+  """
+  def slashy = /a\/b\d+/
+  def multiLineSlashy = /first
+    second/
+  def slashyGString = /x${name}y/
+  def dollarSlashy = $/a/b $$ $/ ${name}
+    c/$
+  def ratio = 10 / 2 / 5
+  def matcher = name =~ /\w+/
+  def quotes = """ "quoted" and ""twice"" """
+
+  String name = 'world' // trailing comment
+
+  int compute(int a,
+              // comment inside parentheses
+              int b /* and another */) {
+    def list = [
+      a, // in a list
+      b
+    ]
+    a++ / b-- / (a + b) /* division */ / list.size()
+  }
+
+  void lineEscape() {
+    def sum = 1 + \
+      2
+    println sum
+  }
+}